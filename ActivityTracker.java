@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+// keeps entities that stopped moving out of the tick. a circle or rectangle with no velocity that no contact pushed
+// for SLEEP_AFTER_TICKS ticks falls asleep: it isn't moved or given to the broadphase anymore, it only sits in a hashed
+// grid where awake entities look for it if it collides with entities, bucketed by the cell of its top left corner
+// like in CullingGrid. it wakes when an awake entity bounces off it or pushes it, or when a setter changes how it
+// moves or collides, so a tick costs in proportion to the awake entities. resting contacts within the narrowphase's
+// slop don't count, so piles of entities fall asleep too. other entities never fall asleep, nothing tells the tracker
+// when they change
+final class ActivityTracker {
+
+    static final int SLEEP_AFTER_TICKS = 30;
+    // a contact pushing an entity by less than this keeps it resting. the push out of an overlap shrinks every tick
+    // without reaching zero, so waking on any push would keep settled piles awake forever
+    static final double RESTING_PUSH_PX = 0.01;
+
+    private static final int CELL_SHIFT = 6;
+    private static final int MIN_BUCKETS = 1024;
+
+    // per entity, by index into the entity array
+    private Entity[] entities = new Entity[0];
+    private int entityCount;
+    private int[] idleTicks = new int[0];
+    private Entity[] spareEntities = new Entity[0]; // the arrays of the update() before, swapped with the ones above
+    private int[] spareIdleTicks = new int[0];
+    private int[] awakeSlot = new int[0]; // where in the awake list the entity is, -1 while asleep
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private int[] bucketOf = new int[0]; // -1 for sleeping entities that don't collide with entities
+    private int[] slotOf = new int[0];
+    private boolean stale = true;
+    private boolean forgetIdleTicks;
+
+    private int[] awakeIndices = new int[0];
+    private Entity[] awakeEntities = new Entity[0]; // the same entities, for the broadphase and the integration
+    private int awakeCount;
+    private boolean awakeChanged;
+
+    // sleeping entities, bucketed by cell hash
+    private int[][] bucketEntities = new int[0][];
+    private int[] bucketSizes = new int[0];
+    private int bucketMask;
+    private int maxSleepingWidth;
+    private int maxSleepingHeight;
+
+    private final PairBuffer awakePairs = new PairBuffer();
+
+    // the next update() takes the entity array again, carrying over how long entities that are still there were idle
+    void invalidate() {
+        stale = true;
+    }
+
+    // like invalidate(), but every entity starts out awake and idle for no ticks, so snapshots replay the same way
+    void reset() {
+        stale = true;
+        forgetIdleTicks = true;
+    }
+
+    boolean isStale() {
+        return stale;
+    }
+
+    void update(Entity[] entities, int entityCount) {
+        if (!stale) {return;}
+
+        Entity[] lastEntities = this.entities;
+        int[] lastIdleTicks = idleTicks;
+        int lastEntityCount = forgetIdleTicks ? 0 : this.entityCount;
+        this.entities = spareEntities;
+        idleTicks = spareIdleTicks;
+        if (this.entities.length < entityCount) {
+            this.entities = new Entity[Math.max(entityCount, lastEntities.length)];
+            idleTicks = new int[this.entities.length];
+        }
+        if (awakeSlot.length < entityCount) {
+            int capacity = Math.max(entityCount, awakeSlot.length * 2);
+            awakeSlot = new int[capacity];
+            cellX = new int[capacity];
+            cellY = new int[capacity];
+            bucketOf = new int[capacity];
+            slotOf = new int[capacity];
+            awakeIndices = new int[capacity];
+            awakeEntities = new Entity[capacity];
+        }
+
+        int bucketCount = Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(1, entityCount / 4)) * 2);
+        if (bucketCount != bucketSizes.length) {
+            bucketEntities = new int[bucketCount][];
+            bucketSizes = new int[bucketCount];
+            bucketMask = bucketCount - 1;
+        }
+        else {
+            Arrays.fill(bucketSizes, 0);
+        }
+        maxSleepingWidth = 0;
+        maxSleepingHeight = 0;
+
+        awakeCount = 0;
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            this.entities[i] = entity;
+            int idle = 0;
+            if (entity instanceof ManagedEntity) {
+                ManagedEntity managed = (ManagedEntity) entity;
+                int last = managed.getActivityIndex();
+                if (last >= 0 && last < lastEntityCount && lastEntities[last] == entity) {idle = lastIdleTicks[last];}
+                managed.setActivityIndex(i);
+            }
+            idleTicks[i] = idle;
+            if (idle >= SLEEP_AFTER_TICKS) {
+                awakeSlot[i] = -1;
+                addToBucket(i);
+            }
+            else {
+                addAwake(i);
+            }
+        }
+        Arrays.fill(this.entities, entityCount, this.entities.length, null);
+        Arrays.fill(awakeEntities, awakeCount, awakeEntities.length, null);
+        Arrays.fill(lastEntities, null);
+        spareEntities = lastEntities;
+        spareIdleTicks = lastIdleTicks;
+        this.entityCount = entityCount;
+        stale = false;
+        forgetIdleTicks = false;
+        awakeChanged = true;
+    }
+
+    // called by the setters of the built in shapes before they change anything, and when a contact pushes them
+    void wake(ManagedEntity entity) {
+        int index = entity.getActivityIndex();
+        if (stale || index < 0 || index >= entityCount || entities[index] != entity) {return;}
+
+        idleTicks[index] = -1; // counts as moving this tick
+        if (awakeSlot[index] >= 0) {return;}
+
+        removeFromBucket(index);
+        addAwake(index);
+        awakeChanged = true;
+    }
+
+    // adds the candidate pairs between awake entities, from the broadphase, and between awake and sleeping ones
+    // as indices into the entity array, lower index first
+    void findPairs(Broadphase broadphase, PairBuffer pairs) {
+        if (awakeChanged) {
+            broadphase.entitiesChanged(); // indices into the awake list moved
+            awakeChanged = false;
+        }
+        awakePairs.clear();
+        broadphase.findPairs(awakeEntities, awakeCount, awakePairs);
+        for (int pair = 0; pair < awakePairs.size(); pair++) {
+            int first = awakeIndices[awakePairs.getFirst(pair)];
+            int second = awakeIndices[awakePairs.getSecond(pair)];
+            pairs.add(Math.min(first, second), Math.max(first, second));
+        }
+
+        for (int slot = 0; slot < awakeCount; slot++) {
+            Entity entity = awakeEntities[slot];
+            if (!entity.collidesWithEntities()) {continue;}
+            if (!Entity.hasBounds(entity)) {
+                findSleepingPairs(awakeIndices[slot], pairs);
+                continue;
+            }
+
+            int minX = entity.getMinX();
+            int minY = entity.getMinY();
+            int maxX = entity.getMaxX();
+            int maxY = entity.getMaxY();
+            // a sleeping entity reaches at most its size past the cell of its top left corner
+            for (int y = (minY - maxSleepingHeight) >> CELL_SHIFT; y <= (maxY - 1) >> CELL_SHIFT; y++) {
+                for (int x = (minX - maxSleepingWidth) >> CELL_SHIFT; x <= (maxX - 1) >> CELL_SHIFT; x++) {
+                    int bucket = bucketOf(x, y);
+                    int[] members = bucketEntities[bucket];
+                    for (int member = 0; member < bucketSizes[bucket]; member++) {
+                        int sleeping = members[member];
+                        if (cellX[sleeping] != x || cellY[sleeping] != y) {continue;} // another cell in the same bucket
+
+                        Entity other = entities[sleeping];
+                        if (other.getCollisionLayer() != entity.getCollisionLayer() ||
+                                other.getMaxX() <= minX || other.getMinX() >= maxX ||
+                                other.getMaxY() <= minY || other.getMinY() >= maxY) {continue;}
+                        int index = awakeIndices[slot];
+                        pairs.add(Math.min(index, sleeping), Math.max(index, sleeping));
+                    }
+                }
+            }
+        }
+    }
+
+    // an entity without bounds overlaps every sleeping entity on its layer
+    private void findSleepingPairs(int index, PairBuffer pairs) {
+        for (int sleeping = 0; sleeping < entityCount; sleeping++) {
+            if (awakeSlot[sleeping] >= 0 || bucketOf[sleeping] < 0 ||
+                    entities[sleeping].getCollisionLayer() != entities[index].getCollisionLayer()) {continue;}
+            pairs.add(Math.min(index, sleeping), Math.max(index, sleeping));
+        }
+    }
+
+    // after the contacts were resolved, which woke the entities they bounced or pushed: awake entities that stayed
+    // still long enough fall asleep
+    void endTick() {
+        // backwards, since falling asleep swaps the last awake entity into the slot
+        for (int slot = awakeCount - 1; slot >= 0; slot--) {
+            int index = awakeIndices[slot];
+            Entity entity = awakeEntities[slot];
+            if (!(entity instanceof ManagedEntity)) {continue;}
+
+            ManagedEntity managed = (ManagedEntity) entity;
+            if (managed.getDxPxPerFrame() != 0 || managed.getDyPxPerFrame() != 0) {
+                idleTicks[index] = 0;
+                continue;
+            }
+            if (idleTicks[index] == -1) { // pushed or changed this tick
+                idleTicks[index] = 0;
+                continue;
+            }
+            if (++idleTicks[index] < SLEEP_AFTER_TICKS) {continue;}
+
+            removeAwake(index);
+            addToBucket(index);
+            awakeChanged = true;
+        }
+    }
+
+    private void addAwake(int index) {
+        awakeSlot[index] = awakeCount;
+        awakeIndices[awakeCount] = index;
+        awakeEntities[awakeCount] = entities[index];
+        awakeCount++;
+    }
+
+    private void removeAwake(int index) {
+        int slot = awakeSlot[index];
+        int last = --awakeCount;
+        awakeIndices[slot] = awakeIndices[last];
+        awakeEntities[slot] = awakeEntities[last];
+        awakeSlot[awakeIndices[slot]] = slot;
+        awakeEntities[last] = null;
+        awakeSlot[index] = -1;
+    }
+
+    private void addToBucket(int index) {
+        Entity entity = entities[index];
+        if (!entity.collidesWithEntities()) {
+            bucketOf[index] = -1;
+            return;
+        }
+        maxSleepingWidth = Math.max(maxSleepingWidth, entity.getMaxX() - entity.getMinX());
+        maxSleepingHeight = Math.max(maxSleepingHeight, entity.getMaxY() - entity.getMinY());
+        cellX[index] = entity.getMinX() >> CELL_SHIFT;
+        cellY[index] = entity.getMinY() >> CELL_SHIFT;
+
+        int bucket = bucketOf(cellX[index], cellY[index]);
+        int[] members = bucketEntities[bucket];
+        if (members == null) {
+            members = bucketEntities[bucket] = new int[4];
+        }
+        else if (bucketSizes[bucket] == members.length) {
+            members = bucketEntities[bucket] = Arrays.copyOf(members, members.length * 2);
+        }
+        slotOf[index] = bucketSizes[bucket];
+        members[bucketSizes[bucket]++] = index;
+        bucketOf[index] = bucket;
+    }
+
+    // swaps the last entity of the bucket into the gap
+    private void removeFromBucket(int index) {
+        int bucket = bucketOf[index];
+        if (bucket < 0) {return;}
+
+        int[] members = bucketEntities[bucket];
+        int last = members[--bucketSizes[bucket]];
+        members[slotOf[index]] = last;
+        slotOf[last] = slotOf[index];
+    }
+
+    private int bucketOf(int x, int y) {
+        int hash = x * 0x9e3779b1 + y * 0x85ebca6b;
+        return (hash ^ hash >>> 16) & bucketMask;
+    }
+
+    Entity[] getAwakeEntities() {
+        return awakeEntities;
+    }
+
+    int getAwakeCount() {
+        return awakeCount;
+    }
+}
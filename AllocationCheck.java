@@ -0,0 +1,237 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.Consumer;
+
+// checks that a screen full of pooled particles runs without garbage once it reached a steady state, headless with
+//     java -Djava.awt.headless=true AllocationCheck
+// every scene spawns and removes particles through an EntityPool each tick, is warmed up until the pool, the screen
+// and every tracker have grown to about as far as they will, and then counts what the stepping thread allocates over a
+// few rounds of ticks. a buffer growing to a new peak or the jit recompiling something allocates once in a while, so a
+// scene only fails when every round allocated, and then the check exits with 1
+public class AllocationCheck {
+
+    private static final int PARTICLES = 2000;
+    private static final int WARMUP_TICKS = 3000;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int TICKS_PER_ROUND = 200;
+    private static final int LIFETIME_TICKS = 16;
+    private static final double DELTA_TIME_MS = 16;
+
+    private static class Scene {
+        final String name;
+        final boolean despawning; // particles are despawned by hand instead of running out of time
+        final Consumer<Screen> setup;
+
+        Scene(String name, boolean despawning, Consumer<Screen> setup) {
+            this.name = name;
+            this.despawning = despawning;
+            this.setup = setup;
+        }
+    }
+
+    private static final Scene[] SCENES = {
+        new Scene("expire", false, screen -> {}),
+        new Scene("despawn", true, screen -> {}),
+        new Scene("expire.sweepAndPrune", false, screen -> screen.setBroadphase(new SweepAndPruneBroadphase())),
+        new Scene("despawn.sweepAndPrune", true, screen -> screen.setBroadphase(new SweepAndPruneBroadphase())),
+        new Scene("expire.dirtyRectangles", false, screen -> screen.setDirtyRectanglesEnabled(true)),
+        new Scene("expire.culling", false, screen -> {
+            screen.setWorldSize(1600, 1200);
+            screen.setViewportCullingEnabled(true);
+        }),
+        new Scene("expire.sleeping", false, screen -> screen.setSleepingEnabled(true)),
+        new Scene("expire.entityStore", false, screen -> screen.setEntityStoreEnabled(true)),
+        new Scene("expire.customShapes", false, screen -> {
+            screen.addEntity(new Post(200, 150, 60));
+            screen.addEntity(new Post(500, 350, 80));
+        }),
+        new Scene("despawn.everything", true, screen -> {
+            screen.setBroadphase(new SweepAndPruneBroadphase());
+            screen.setWorldSize(1600, 1200);
+            screen.setViewportCullingEnabled(true);
+            screen.setDirtyRectanglesEnabled(true);
+            screen.setSleepingEnabled(true);
+            screen.setEntityStoreEnabled(true);
+        }),
+    };
+
+    public static void main(String[] args) {
+        boolean passed = true;
+        for (Scene scene : SCENES) {
+            passed &= run(scene);
+        }
+        System.out.println(passed ? "no scene allocates" : "scenes allocate in steady state");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(Scene scene) {
+        HeadlessScreen screen = new HeadlessScreen();
+        scene.setup.accept(screen);
+        EntityPool<Circle> pool = new EntityPool<>(screen, () -> {
+            Circle particle = new Circle(3, 0, 0, 0, 0, 0xffffff, 0);
+            particle.setCollidesWithEntities(true);
+            return particle;
+        }, 0);
+        Random rand = new Random(0);
+        Circle[] spawned = new Circle[PARTICLES]; // oldest first, for the despawning scenes
+        int spawnsPerTick = PARTICLES / LIFETIME_TICKS;
+
+        int tick = 0;
+        for (; tick < WARMUP_TICKS; tick++) {
+            tick(screen, pool, rand, spawned, tick, spawnsPerTick, scene.despawning);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long fewest = Long.MAX_VALUE;
+        long most = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            for (int end = tick + TICKS_PER_ROUND; tick < end; tick++) {
+                tick(screen, pool, rand, spawned, tick, spawnsPerTick, scene.despawning);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            fewest = Math.min(fewest, allocated);
+            most = Math.max(most, allocated);
+        }
+        screen.stop();
+
+        System.out.printf("%-28s %10.1f bytes/tick, %.1f in the worst round%n", scene.name,
+                fewest / (double) TICKS_PER_ROUND, most / (double) TICKS_PER_ROUND);
+        return fewest == 0;
+    }
+
+    private static void tick(HeadlessScreen screen, EntityPool<Circle> pool, Random rand, Circle[] spawned, int tick,
+            int spawnsPerTick, boolean despawning) {
+        for (int i = 0; i < spawnsPerTick; i++) {
+            int slot = (tick * spawnsPerTick + i) % spawned.length;
+            if (despawning && spawned[slot] != null) {
+                pool.despawn(spawned[slot]);
+            }
+
+            Circle particle = pool.acquire();
+            particle.setPositionX(rand.nextInt(20, 780));
+            particle.setPositionY(rand.nextInt(20, 580));
+            particle.setDxPxPerFrame(rand.nextInt(-300, 300));
+            particle.setDyPxPerFrame(rand.nextInt(-300, 300));
+            if (despawning) {
+                pool.spawn(particle);
+            }
+            else {
+                pool.spawn(particle, LIFETIME_TICKS * DELTA_TIME_MS);
+            }
+            spawned[slot] = particle;
+        }
+        screen.step(DELTA_TIME_MS);
+    }
+
+    // a square post of a shape kind of its own that particles bounce off, so the registered test and response run
+    // through CollisionDispatch every tick. it is drawn with a fill instead of covers(), which allocates
+    private static class Post implements Entity {
+
+        static final int KIND = ShapeKind.register();
+
+        static {
+            CollisionDispatch.register(KIND, ShapeKind.CIRCLE,
+                    (first, second, contact) -> ((Post) first).touches((Circle) second, contact));
+            CollisionDispatch.registerResponse(KIND, ShapeKind.CIRCLE,
+                    (first, second, contact) -> ((Circle) second).translate(contact.getNormalX() * contact.getDepth(),
+                            contact.getNormalY() * contact.getDepth()));
+        }
+
+        private final int minX;
+        private final int minY;
+        private final int size;
+
+        Post(int minX, int minY, int size) {
+            this.minX = minX;
+            this.minY = minY;
+            this.size = size;
+        }
+
+        // the particle's center against the post grown by its radius, pushed out the nearest side
+        boolean touches(Circle particle, ContactManifold contact) {
+            int radius = particle.getRadius();
+            int toLeft = particle.getPositionX() + radius - minX;
+            int toRight = minX + size - particle.getPositionX() + radius;
+            int toTop = particle.getPositionY() + radius - minY;
+            int toBottom = minY + size - particle.getPositionY() + radius;
+            if (toLeft <= 0 || toRight <= 0 || toTop <= 0 || toBottom <= 0) {return false;}
+
+            if (contact != null) {
+                int depth = Math.min(Math.min(toLeft, toRight), Math.min(toTop, toBottom));
+                if (depth == toLeft) {contact.set(-1, 0, depth);}
+                else if (depth == toRight) {contact.set(1, 0, depth);}
+                else if (depth == toTop) {contact.set(0, -1, depth);}
+                else {contact.set(0, 1, depth);}
+            }
+            return true;
+        }
+
+        public void rasterize(Rasterizer rasterizer) {
+            rasterizer.fillRect(minX, minY, size, size, getColor());
+        }
+
+        public int getColor() {
+            return 0xffcc00;
+        }
+
+        public void updatePosition() {}
+
+        public boolean covers(int pixel) {
+            return false;
+        }
+
+        public int[] getBoundingBoxPixels() {
+            return new int[0];
+        }
+
+        public void setParent(Screen parent) {}
+
+        public int getRenderLayer() {
+            return 1;
+        }
+
+        public int getCollisionLayer() {
+            return 0;
+        }
+
+        public boolean collidesWithEntities() {
+            return true;
+        }
+
+        public boolean collidesWith(Entity other) {
+            return CollisionDispatch.findContact(this, other, null);
+        }
+
+        public void resolveCollision(Entity other) {
+            CollisionDispatch.resolve(this, other);
+        }
+
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinY() {
+            return minY;
+        }
+
+        public int getMaxX() {
+            return minX + size;
+        }
+
+        public int getMaxY() {
+            return minY + size;
+        }
+
+        public int getShapeKind() {
+            return KIND;
+        }
+
+        public int compareTo(Entity other) {
+            return getRenderLayer() - other.getRenderLayer();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// microbenchmarks for the hot paths, run headless with
+//     java -Djava.awt.headless=true Benchmark [name filter] [entity counts...]
+// every case is warmed up before it is timed, and results are reported per operation. bytes/op counts what the
+// benchmark thread allocated while measuring, so a case that runs in steady state without garbage shows 0
+public class Benchmark {
+
+    private static final long WARMUP_NS = 1_000_000_000L;
+    private static final long MEASURE_NS = 2_000_000_000L;
+    private static final int MEASURE_ROUNDS = 10;
+    private static final int[] DEFAULT_COUNTS = {100, 1000, 10000, 100000};
+    private static final int BRUTE_FORCE_LIMIT = 10000; // past this the all pairs scan takes seconds per tick
+
+    private static volatile long blackhole;
+
+    private interface Case {
+        public long run(); // returns how many operations were done
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            counts.add(Integer.parseInt(args[i]));
+        }
+        if (counts.isEmpty()) {
+            for (int count : DEFAULT_COUNTS) {counts.add(count);}
+        }
+
+        System.out.printf("%-32s %8s %14s %10s %10s%n", "benchmark", "entities", "ns/op", "error", "bytes/op");
+        for (int count : counts) {
+            runEntityBenchmarks(filter, count);
+        }
+        runPairBenchmarks(filter);
+        runBlendBenchmarks(filter);
+    }
+
+    private static void runEntityBenchmarks(String filter, int count) {
+        HeadlessScreen screen = createScene(count, true);
+        Circle[] circles = circlesOf(screen);
+
+        measure(filter, "circle.covers", count, () -> {
+            long sum = 0;
+            long operations = 0;
+            for (Circle circle : circles) {
+                for (int pixel : circle.getBoundingBoxPixels()) {
+                    if (circle.covers(pixel)) {sum++;}
+                    operations++;
+                }
+            }
+            blackhole = sum;
+            return operations;
+        });
+
+        measure(filter, "entity.getBoundingBoxPixels", count, () -> {
+            long sum = 0;
+            for (Circle circle : circles) {
+                sum += circle.getBoundingBoxPixels().length;
+            }
+            blackhole = sum;
+            return circles.length;
+        });
+
+        measure(filter, "screen.drawScreen", count, () -> {
+            screen.drawScreen();
+            return 1;
+        });
+
+        // the same scene drawn with every entity half transparent, then with opaque entities in translucent layers
+        HeadlessScreen translucentScreen = createScene(count, true);
+        for (Entity entity : translucentScreen.getEntities()) {
+            if (entity instanceof Circle) {((Circle) entity).setAlpha(128);}
+            else {((Rectangle) entity).setAlpha(128);}
+        }
+        measure(filter, "screen.drawScreen.alpha", count, () -> {
+            translucentScreen.drawScreen();
+            return 1;
+        });
+
+        HeadlessScreen layeredScreen = createScene(count, true);
+        layeredScreen.setLayerOpacity(1, 128);
+        layeredScreen.setLayerOpacity(3, 192);
+        measure(filter, "screen.drawScreen.layerOpacity", count, () -> {
+            layeredScreen.drawScreen();
+            return 1;
+        });
+
+        // zoomed in on the top left quarter of the scene, so three quarters of the entities are culled
+        HeadlessScreen culledScreen = createScene(count, true);
+        culledScreen.setViewportCullingEnabled(true);
+        culledScreen.getCamera().setZoom(2);
+        measure(filter, "screen.drawScreen.culled", count, () -> {
+            culledScreen.drawScreen();
+            return 1;
+        });
+
+        // the same number of 16x16 sprites, half of them opaque and half with soft edges
+        HeadlessScreen spriteScreen = createSpriteScene(count);
+        measure(filter, "screen.drawScreen.sprites", count, () -> {
+            spriteScreen.drawScreen();
+            return 1;
+        });
+
+        int[] reference = new int[screen.getWindowWidth() * screen.getWindowHeight()];
+        Rasterizer referenceRasterizer = new Rasterizer(reference, screen.getWindowWidth(), screen.getWindowHeight());
+        measure(filter, "circles.rasterize.covers", count, () -> {
+            for (Circle circle : circles) {
+                referenceRasterizer.rasterizeCoverage(circle);
+            }
+            return 1;
+        });
+
+        measure(filter, "circles.rasterize.spans", count, () -> {
+            for (Circle circle : circles) {
+                circle.rasterize(referenceRasterizer);
+            }
+            return 1;
+        });
+
+        Rasterizer uncachedRasterizer = new Rasterizer(reference, screen.getWindowWidth(), screen.getWindowHeight());
+        uncachedRasterizer.getSpanCache().setBudgetBytes(0);
+        measure(filter, "circles.rasterize.spans.uncached", count, () -> {
+            for (Circle circle : circles) {
+                circle.rasterize(uncachedRasterizer);
+            }
+            return 1;
+        });
+
+        benchmarkBroadphase(filter, "collisions.grid", screen, count, new GridBroadphase());
+        benchmarkBroadphase(filter, "collisions.sweepAndPrune", screen, count, new SweepAndPruneBroadphase());
+        if (count <= BRUTE_FORCE_LIMIT) {
+            benchmarkBroadphase(filter, "collisions.bruteForce", screen, count, new BruteForceBroadphase());
+        }
+
+        List<Entity> bulk = createScene(count, true).getEntities();
+        HeadlessScreen bulkScreen = new HeadlessScreen();
+        measure(filter, "screen.addEntities+removeEntities", count, () -> {
+            bulkScreen.addEntities(bulk);
+            bulkScreen.step(0);
+            bulkScreen.removeEntities(bulk);
+            bulkScreen.step(0);
+            return 1;
+        });
+
+        // spawns a sixteenth of the count every 16 ms tick with a lifetime of 16 ticks, so about count particles are alive
+        HeadlessScreen particleScreen = new HeadlessScreen();
+        Random rand = new Random(0);
+        EntityPool<Circle> particles = new EntityPool<>(particleScreen,
+                () -> new Circle(2, 400, 300, 0, 0, 0xffffff, 1), count);
+        int spawnsPerTick = Math.max(1, count / 16);
+        measure(filter, "entityPool.spawn+expire", count, () -> {
+            for (int i = 0; i < spawnsPerTick; i++) {
+                Circle particle = particles.acquire();
+                particle.setPositionX(rand.nextInt(20, 780));
+                particle.setPositionY(rand.nextInt(20, 580));
+                particle.setDxPxPerFrame(rand.nextInt(-300, 300));
+                particle.setDyPxPerFrame(rand.nextInt(-300, 300));
+                particles.spawn(particle, 16 * 16);
+            }
+            particleScreen.step(16);
+            return 1;
+        });
+
+        // the simulation of a tick over count resting circles and a few moving ones, without drawing
+        for (boolean sleeping : new boolean[] {false, true}) {
+            HeadlessScreen restingScreen = createRestingScene(count);
+            restingScreen.setSleepingEnabled(sleeping);
+            for (int tick = 0; tick <= ActivityTracker.SLEEP_AFTER_TICKS; tick++) {
+                restingScreen.step(16);
+            }
+            measure(filter, sleeping ? "screen.simulate.resting.sleeping" : "screen.simulate.resting", count, () -> {
+                restingScreen.simulate();
+                return 1;
+            });
+        }
+    }
+
+    private static HeadlessScreen createRestingScene(int count) {
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        HeadlessScreen screen = new HeadlessScreen(0x000000, 64, 64);
+        screen.setWorldSize(columns * 28, columns * 28);
+        for (int i = 0; i < count; i++) {
+            screen.addEntity(new Circle(6, 14 + i % columns * 28, 14 + i / columns * 28, 0, 0, 0xffffff, 0));
+        }
+        Random rand = new Random(0);
+        for (int i = 0; i < Math.max(1, count / 1000); i++) {
+            screen.addEntity(new Circle(4, rand.nextInt(5, columns * 28 - 5), rand.nextInt(5, columns * 28 - 5),
+                    rand.nextInt(-150, 150), rand.nextInt(-150, 150), 0xff0000, 0));
+        }
+        return screen;
+    }
+
+    private static void benchmarkBroadphase(String filter, String name, Screen screen, int count, Broadphase broadphase) {
+        screen.setBroadphase(broadphase);
+        measure(filter, name, count, () -> {
+            screen.checkCollisions();
+            return 1;
+        });
+    }
+
+    private static void runPairBenchmarks(String filter) {
+        Random rand = new Random(0);
+        int pairCount = 4096;
+        Circle[] circles = new Circle[pairCount];
+        Rectangle[] rectangles = new Rectangle[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            circles[i] = new Circle(rand.nextInt(5, 15), rand.nextInt(0, 200), rand.nextInt(0, 200));
+            rectangles[i] = new Rectangle(rand.nextInt(0, 200), rand.nextInt(0, 200), rand.nextInt(20, 40), rand.nextInt(20, 40));
+        }
+
+        measure(filter, "circle.collidesWith(rectangle)", pairCount, () -> {
+            long hits = 0;
+            for (int i = 0; i < pairCount; i++) {
+                if (circles[i].collidesWith(rectangles[i])) {hits++;}
+            }
+            blackhole = hits;
+            return pairCount;
+        });
+
+        measure(filter, "circle.collidesWith(circle)", pairCount, () -> {
+            long hits = 0;
+            for (int i = 0; i < pairCount; i++) {
+                if (circles[i].collidesWith(circles[pairCount - 1 - i])) {hits++;}
+            }
+            blackhole = hits;
+            return pairCount;
+        });
+    }
+
+    // cost per pixel of a full frame rectangle, opaque against blended, and of compositing one buffer over another
+    private static void runBlendBenchmarks(String filter) {
+        int width = Screen.DEFAULT_WINDOW_WIDTH;
+        int height = Screen.DEFAULT_WINDOW_HEIGHT;
+        int pixelCount = width * height;
+        int[] pixels = new int[pixelCount];
+        int[] layer = new int[pixelCount];
+        Rasterizer rasterizer = new Rasterizer(pixels, width, height);
+
+        measure(filter, "rasterizer.fillRect.opaque", pixelCount, () -> {
+            rasterizer.fillRect(0, 0, width, height, 0x336699);
+            return pixelCount;
+        });
+
+        measure(filter, "rasterizer.fillRect.alpha", pixelCount, () -> {
+            rasterizer.fillRect(0, 0, width, height, 0x336699, 100);
+            return pixelCount;
+        });
+
+        measure(filter, "rasterizer.blend(layer)", pixelCount, () -> {
+            Rasterizer.blend(pixels, layer, 0, pixelCount, 100);
+            return pixelCount;
+        });
+
+        // a full frame image, copied row by row against blended pixel by pixel
+        TextureAtlas atlas = new TextureAtlas();
+        int[] image = new int[pixelCount];
+        for (int i = 0; i < pixelCount; i++) {image[i] = 0xff336699 + i;}
+        TextureAtlas.Region opaque = atlas.add(image, width, height);
+        for (int i = 0; i < pixelCount; i++) {image[i] = 0x80336699 + i;}
+        TextureAtlas.Region translucent = atlas.add(image, width, height);
+
+        measure(filter, "rasterizer.drawRegion.opaque", pixelCount, () -> {
+            rasterizer.drawRegion(opaque, 0, 0, width, height, Sprite.NO_COLOR_KEY, 255);
+            return pixelCount;
+        });
+
+        measure(filter, "rasterizer.drawRegion.translucent", pixelCount, () -> {
+            rasterizer.drawRegion(translucent, 0, 0, width, height, Sprite.NO_COLOR_KEY, 255);
+            return pixelCount;
+        });
+    }
+
+    // count sprites moving like the entities of createScene(), drawn from 16 images in one atlas
+    private static HeadlessScreen createSpriteScene(int count) {
+        HeadlessScreen screen = new HeadlessScreen(0x000033, Screen.DEFAULT_WINDOW_WIDTH, Screen.DEFAULT_WINDOW_HEIGHT);
+        Random rand = new Random(0);
+
+        TextureAtlas atlas = new TextureAtlas();
+        TextureAtlas.Region[] regions = new TextureAtlas.Region[16];
+        int[] image = new int[16 * 16];
+        for (int region = 0; region < regions.length; region++) {
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    int distanceSquared = (x - 8) * (x - 8) + (y - 8) * (y - 8);
+                    int alpha = region % 2 == 0 ? 255 : Math.max(0, Math.min(255, (64 - distanceSquared) * 20));
+                    image[y * 16 + x] = alpha << 24 | rand.nextInt(0xffffff);
+                }
+            }
+            regions[region] = atlas.add(image, 16, 16);
+        }
+
+        List<Entity> sprites = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Sprite sprite = new Sprite(regions[rand.nextInt(regions.length)], rand.nextInt(784), rand.nextInt(584),
+                    rand.nextInt(600), rand.nextInt(600), 1);
+            sprite.setCollidesWithScreenBorders(true);
+            sprites.add(sprite);
+        }
+        screen.addEntities(sprites);
+        screen.step(0);
+        return screen;
+    }
+
+    // the same mix of shapes as Main, scaled to the given count
+    static HeadlessScreen createScene(int count, boolean collidesWithEntities) {
+        HeadlessScreen screen = new HeadlessScreen(0x000033, Screen.DEFAULT_WINDOW_WIDTH, Screen.DEFAULT_WINDOW_HEIGHT);
+        Random rand = new Random(0);
+
+        int rectangles = count * 2 / 17;
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entity toAdd;
+            if (i < rectangles) {
+                Rectangle rectangle = new Rectangle(rand.nextInt(20, 200), rand.nextInt(20, 200),
+                        rand.nextInt(20, 40), rand.nextInt(20, 40),
+                        rand.nextInt(600), rand.nextInt(600), rand.nextInt(0xffffff), 3);
+                rectangle.setCollidesWithScreenBorders(true);
+                rectangle.setCollidesWithEntities(collidesWithEntities);
+                toAdd = rectangle;
+            }
+            else {
+                Circle circle = new Circle(rand.nextInt(5, 15), rand.nextInt(20, 780), rand.nextInt(20, 580),
+                        rand.nextInt(600), rand.nextInt(600), rand.nextInt(0xffffff), 1);
+                circle.setCollidesWithScreenBorders(true);
+                circle.setCollidesWithEntities(collidesWithEntities);
+                toAdd = circle;
+            }
+            entities.add(toAdd);
+        }
+
+        screen.addEntities(entities);
+        screen.step(0); // applies the add and builds the entity array
+        return screen;
+    }
+
+    private static Circle[] circlesOf(Screen screen) {
+        List<Circle> circles = new ArrayList<>();
+        for (Entity entity : screen.getEntities()) {
+            if (entity instanceof Circle) {circles.add((Circle) entity);}
+        }
+        return circles.toArray(new Circle[0]);
+    }
+
+    private static void measure(String filter, String name, int entities, Case benchmark) {
+        if (!name.contains(filter)) {return;}
+
+        long warmupEnd = System.nanoTime() + WARMUP_NS;
+        while (System.nanoTime() < warmupEnd) {
+            benchmark.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long totalOperations = 0;
+
+        double[] rounds = new double[MEASURE_ROUNDS];
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long operations = 0;
+            long start = System.nanoTime();
+            long end = start + MEASURE_NS / MEASURE_ROUNDS;
+            long now;
+            do {
+                operations += benchmark.run();
+                now = System.nanoTime();
+            } while (now < end);
+            rounds[round] = (now - start) / (double) operations;
+            totalOperations += operations;
+        }
+        double bytesPerOperation = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / (double) totalOperations;
+
+        double mean = 0;
+        for (double round : rounds) {mean += round;}
+        mean /= rounds.length;
+
+        double variance = 0;
+        for (double round : rounds) {variance += (round - mean) * (round - mean);}
+        double error = Math.sqrt(variance / (rounds.length - 1));
+
+        System.out.printf("%-32s %8d %14.1f %10.1f %10.1f%n", name, entities, mean, error, bytesPerOperation);
+    }
+}
@@ -0,0 +1,9 @@
+public interface Broadphase {
+
+    // adds every candidate pair as indices into entities, with the lower index first
+    public void findPairs(Entity[] entities, int entityCount, PairBuffer pairs);
+
+    // called whenever the entity array was rebuilt, so cached indices can be dropped
+    public default void entitiesChanged() {}
+
+}
@@ -0,0 +1,17 @@
+public class BruteForceBroadphase implements Broadphase {
+
+    // checks every pair, kept as the reference to test the other broadphases against
+    public void findPairs(Entity[] entities, int entityCount, PairBuffer pairs) {
+        for (int checkingIndex = 0; checkingIndex < entityCount; checkingIndex++) {
+            Entity checking = entities[checkingIndex];
+            if (!checking.collidesWithEntities()) {continue;}
+
+            for (int checkedIndex = checkingIndex + 1; checkedIndex < entityCount; checkedIndex++) {
+                Entity checked = entities[checkedIndex];
+                if (!checked.collidesWithEntities() || checked.getCollisionLayer() != checking.getCollisionLayer()) {continue;}
+
+                pairs.add(checkingIndex, checkedIndex);
+            }
+        }
+    }
+}
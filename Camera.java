@@ -0,0 +1,39 @@
+// which part of the world the screen shows. the offset is the world position drawn at the top left corner of the
+// window and the zoom is how many window pixels one world pixel covers. can be moved from any thread, the screen
+// reads it once at the start of every frame
+public class Camera {
+
+    private volatile double offsetX;
+    private volatile double offsetY;
+    private volatile double zoom = 1;
+
+    public void setOffset(double offsetX, double offsetY) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    // moves the camera so the given world position is in the middle of a window of the given size
+    public void centerOn(double worldX, double worldY, int windowWidth, int windowHeight) {
+        double zoom = this.zoom;
+        setOffset(worldX - windowWidth / 2.0 / zoom, worldY - windowHeight / 2.0 / zoom);
+    }
+
+    public void setZoom(double zoom) {
+        if (!(zoom > 0) || Double.isInfinite(zoom)) {
+            throw new IllegalArgumentException("the camera zoom must be a positive number.");
+        }
+        this.zoom = zoom;
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+}
@@ -1,4 +1,7 @@
-public class Circle implements Entity {
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Circle implements ManagedEntity {
 
     private int radius;
     private double positionX;
@@ -10,8 +13,18 @@ public class Circle implements Entity {
     private int collisionLayer;
 
     private int color;
+    private int alpha = 255;
     private int renderLayer;
     private Screen parent;
+    private double previousPositionX; // where the last fixed tick started, for interpolated drawing
+    private double previousPositionY;
+    private double simulatedPositionX;
+    private double simulatedPositionY;
+    private EntityStore store; // when set, position and velocity live in the store instead of the fields above
+    private int storeSlot;
+    private int layerIndex;
+    private int activityIndex = -1;
+    private int poolIndex;
 
     private static final int DEFAULT_COLOR = 0xffffff;
 
@@ -30,6 +43,8 @@ public class Circle implements Entity {
         this.radius = radius;
         this.positionX = positionX;
         this.positionY = positionY;
+        this.previousPositionX = positionX;
+        this.previousPositionY = positionY;
         this.dxPxPerFrame = dxPxPerFrame;
         this.dyPxPerFrame = dyPxPerFrame;
         this.color = color;
@@ -37,27 +52,31 @@ public class Circle implements Entity {
     }
 
     public void updatePosition() {
+        if (store != null) {
+            store.integrate(storeSlot, storeSlot + 1, parent.getDeltaTimeMs() / 1000.0, parent.getWorldWidth(), parent.getWorldHeight());
+            return;
+        }
         double deltaTimeSec = parent.getDeltaTimeMs() / 1000.0;
 
         positionX += dxPxPerFrame * deltaTimeSec;
         positionY += dyPxPerFrame * deltaTimeSec;
 
         if (collidesWithScreenBorders) {
-            checkWallCollisions(parent.getWindowWidth(), parent.getWindowHeight());
+            checkWallCollisions(parent.getWorldWidth(), parent.getWorldHeight());
         }
     }
 
-    private void checkWallCollisions(int windowWidth, int windowHeight) {
+    private void checkWallCollisions(int worldWidth, int worldHeight) {
         int positionXInt = (int) positionX; // cast to int for faster comparisons
         int positionYInt = (int) positionY;
 
-        if (positionXInt + radius > windowWidth) {
+        if (positionXInt + radius > worldWidth) {
             dxPxPerFrame = -Math.abs(dxPxPerFrame);
         }
         else if (positionXInt - radius < 0) {
             dxPxPerFrame = Math.abs(dxPxPerFrame);
         }
-        if (positionYInt + radius > windowHeight) {
+        if (positionYInt + radius > worldHeight) {
             dyPxPerFrame = -Math.abs(dyPxPerFrame);
         }
         else if (positionYInt - radius < 0) {
@@ -70,81 +89,83 @@ public class Circle implements Entity {
     }
 
     public boolean collidesWith(Entity other) {
-        if (other instanceof Circle) {
-            Circle otherCircle = (Circle) other;
-            
-            return  getPositionX() - radius < otherCircle.getPositionX() + otherCircle.radius &&
-                    getPositionX() + radius > otherCircle.getPositionX() - otherCircle.radius &&
-                    getPositionY() - radius < otherCircle.getPositionY() + otherCircle.radius &&
-                    getPositionY() + radius > otherCircle.getPositionY() - otherCircle.radius &&
-                    (otherCircle.getPositionY() - getPositionY()) * (otherCircle.getPositionY() - getPositionY())
-                    + (otherCircle.getPositionX() - getPositionX()) * (otherCircle.getPositionX() - getPositionX())
-                    < (radius + otherCircle.radius) * (radius + otherCircle.radius);
-        }
-
-        else if (other instanceof Rectangle) { // TODO better
-            Rectangle otherRectangle = (Rectangle) other;
-
-            return getPositionX() - radius < otherRectangle.getTopLeftX() + otherRectangle.getWidth() &&
-                    getPositionX() + radius > otherRectangle.getTopLeftX() &&
-                    getPositionY() - radius < otherRectangle.getTopLeftY() + otherRectangle.getHeight() &&
-                    getPositionY() + radius > otherRectangle.getTopLeftY() &&
-                    (((getPositionX() > otherRectangle.getTopLeftX() &&
-                    getPositionX() < otherRectangle.getTopLeftX() + otherRectangle.getWidth()) ||
-                    (getPositionY() > otherRectangle.getTopLeftY() &&
-                    getPositionY() < otherRectangle.getTopLeftY() + otherRectangle.getHeight())) ||
-                    ((otherRectangle.getTopLeftY() - getPositionY()) * (otherRectangle.getTopLeftY() - getPositionY())
-                    + (otherRectangle.getTopLeftX() - getPositionX()) * (otherRectangle.getTopLeftX() - getPositionX())
-                    < radius * radius) ||
-                    (otherRectangle.getTopLeftY() + otherRectangle.getHeight() - getPositionY()) * (otherRectangle.getTopLeftY() + otherRectangle.getHeight() - getPositionY())
-                    + (otherRectangle.getTopLeftX() - getPositionX()) * (otherRectangle.getTopLeftX() - getPositionX())
-                    < radius * radius ||
-                    (otherRectangle.getTopLeftY() - getPositionY()) * (otherRectangle.getTopLeftY() - getPositionY())
-                    + (otherRectangle.getTopLeftX() + otherRectangle.getWidth() - getPositionX()) * (otherRectangle.getTopLeftX() + otherRectangle.getWidth() - getPositionX())
-                    < radius * radius ||
-                    (otherRectangle.getTopLeftY() + otherRectangle.getHeight() - getPositionY()) * (otherRectangle.getTopLeftY() + otherRectangle.getHeight() - getPositionY())
-                    + (otherRectangle.getTopLeftX() + otherRectangle.getWidth() - getPositionX()) * (otherRectangle.getTopLeftX() + otherRectangle.getWidth() - getPositionX())
-                    < radius * radius);
+        return CollisionDispatch.findContact(this, other, null);
+    }
+
+    public void resolveCollision(Entity other) {
+        if (other instanceof ManagedEntity) {
+            Narrowphase.resolve(this, (ManagedEntity) other, parent);
         }
         else {
-            throw new IllegalArgumentException("the circle class doesn't know how to check for a collision with some type of entity.");
+            CollisionDispatch.resolve(this, other); // a shape registered from outside, with its own response
         }
     }
 
-    public void resolveCollision(Entity other) {
-        if (other instanceof Circle) {
-            Circle otherCircle = (Circle) other;
+    public int getShapeKind() {
+        return ShapeKind.CIRCLE;
+    }
 
-            //TODO implement
-        }
-        else if (other instanceof Rectangle) {
-            Rectangle otherRectangle = (Rectangle) other;
+    public boolean covers(int pixel) {
+        int distanceX = (pixel % parent.getWindowWidth() - getPositionX());
 
-            //TODO implement
+        int distanceY = (pixel / parent.getWindowWidth() - getPositionY());
 
+        return Math.abs(distanceX) + Math.abs(distanceY) < radius ||
+                Math.sqrt(distanceX * distanceX + distanceY * distanceY) < radius;
+    }
+
+    public void rasterize(Rasterizer rasterizer) {
+        int positionXInt = rasterizer.toScreenX(getPositionX());
+        int positionYInt = rasterizer.toScreenY(getPositionY());
+        int radius = rasterizer.toScreenLength(this.radius);
 
+        SpanCache cache = rasterizer.getSpanCache();
+        if (cache.getBudgetBytes() == 0) {
+            for (int distanceY = 1 - radius; distanceY < radius; distanceY++) {
+                int halfWidth = halfWidthAt(radius, distanceY);
+                rasterizer.fillSpan(positionYInt + distanceY, positionXInt - halfWidth, positionXInt + halfWidth + 1, color, alpha);
+            }
+            return;
         }
-        else {
-            throw new IllegalArgumentException("the circle class doesn't know how to resolve a collision with some type of entity.");
+
+        long key = SpanCache.key(ShapeKind.CIRCLE, radius);
+        int[] spans = cache.get(key);
+        if (spans == null) {
+            spans = spansOf(radius);
+            cache.put(key, spans);
         }
+        rasterizer.fillSpans(spans, positionXInt, positionYInt, color, alpha);
     }
 
-    public boolean covers(int pixel) {
-        int distanceX = (pixel % parent.getWindowWidth() - (int) positionX);
-
-        int distanceY = (pixel / parent.getWindowWidth() - (int) positionY);
+    static int[] spansOf(int radius) {
+        int rows = 2 * radius - 1;
+        int[] spans = new int[1 + rows * 2];
+        spans[0] = 1 - radius;
+        for (int row = 0; row < rows; row++) {
+            int halfWidth = halfWidthAt(radius, 1 - radius + row);
+            spans[1 + row * 2] = -halfWidth;
+            spans[2 + row * 2] = halfWidth + 1;
+        }
+        return spans;
+    }
 
-        return Math.abs(distanceX) + Math.abs(distanceY) < radius ||
-                Math.sqrt(distanceX * distanceX + distanceY * distanceY) < radius;
+    // same coverage as covers(): a pixel is drawn when its squared distance from the center is below radius squared
+    private static int halfWidthAt(int radius, int distanceY) {
+        int maxSquared = radius * radius - distanceY * distanceY - 1;
+        int halfWidth = (int) Math.sqrt(maxSquared);
+        while (halfWidth * halfWidth > maxSquared) {halfWidth--;}
+        while ((halfWidth + 1) * (halfWidth + 1) <= maxSquared) {halfWidth++;}
+        return halfWidth;
     }
 
     public int[] getBoundingBoxPixels() {
         int[] boundingBoxPixels = new int[radius * radius * 4];
+        Arrays.fill(boundingBoxPixels, -1); // pixels outside the window stay -1, which plot() skips
 
         int windowWidth = parent.getWindowWidth();
         int windowHeight = parent.getWindowHeight();
-        int positionXInt = (int) positionX;
-        int positionYInt = (int) positionY;
+        int positionXInt = getPositionX();
+        int positionYInt = getPositionY();
 
         for (int row = positionXInt - radius; row < positionXInt + radius; row++) {
             for (int col = positionYInt - radius; col < positionYInt + radius; col++) {
@@ -160,6 +181,22 @@ public class Circle implements Entity {
         return boundingBoxPixels;
     }
 
+    public int getMinX() {
+        return getPositionX() - radius;
+    }
+
+    public int getMinY() {
+        return getPositionY() - radius;
+    }
+
+    public int getMaxX() {
+        return getPositionX() + radius;
+    }
+
+    public int getMaxY() {
+        return getPositionY() + radius;
+    }
+
     public int getRenderLayer() {
         return renderLayer;
     }
@@ -169,19 +206,50 @@ public class Circle implements Entity {
     }
 
     public int getPositionX() {
-        return (int) positionX;
+        return (int) getExactPositionX();
     }
 
     public int getPositionY() {
-        return (int) positionY;
+        return (int) getExactPositionY();
+    }
+
+    double getExactPositionX() {
+        return store == null ? positionX : store.positionX[storeSlot];
+    }
+
+    double getExactPositionY() {
+        return store == null ? positionY : store.positionY[storeSlot];
+    }
+
+    public double getExactX() {
+        return getExactPositionX();
+    }
+
+    public double getExactY() {
+        return getExactPositionY();
+    }
+
+    public void translate(double byX, double byY) {
+        if (Math.abs(byX) + Math.abs(byY) >= ActivityTracker.RESTING_PUSH_PX) {wake();}
+        if (store != null) {
+            store.positionX[storeSlot] += byX;
+            store.positionY[storeSlot] += byY;
+            return;
+        }
+        positionX += byX;
+        positionY += byY;
+    }
+
+    public double getInverseMass() {
+        return 1 / (Math.PI * radius * radius);
     }
 
     public int getDxPxPerFrame() {
-        return dxPxPerFrame;
+        return store == null ? dxPxPerFrame : store.dxPxPerFrame[storeSlot];
     }
 
     public int getDyPxPerFrame() {
-        return dyPxPerFrame;
+        return store == null ? dyPxPerFrame : store.dyPxPerFrame[storeSlot];
     }
     
     public boolean collidesWithScreenBorders() {
@@ -196,44 +264,223 @@ public class Circle implements Entity {
         return color;
     }
 
+    public int getAlpha() {
+        return alpha;
+    }
+
     public void setParent(Screen parent) {
         this.parent = parent;
     }
 
     public void setRadius(int radius) {
+        wake();
         this.radius = radius;
+        if (store != null) {
+            store.originX[storeSlot] = store.originY[storeSlot] = radius;
+            store.sizeX[storeSlot] = store.sizeY[storeSlot] = radius * 2;
+        }
     }
 
     public void setPositionX(int positionX) {
+        wake();
         this.positionX = positionX;
+        previousPositionX = positionX;
+        if (store != null) {store.positionX[storeSlot] = store.previousX[storeSlot] = positionX;}
     }
 
     public void setPositionY(int positionY) {
-        this.positionY = positionX;
+        wake();
+        this.positionY = positionY;
+        previousPositionY = positionY;
+        if (store != null) {store.positionY[storeSlot] = store.previousY[storeSlot] = positionY;}
     }
 
     public void setDxPxPerFrame(int dx) {
+        wake();
         this.dxPxPerFrame = dx;
+        if (store != null) {store.dxPxPerFrame[storeSlot] = dx;}
     }
 
     public void setDyPxPerFrame(int dy) {
+        wake();
         this.dyPxPerFrame = dy;
+        if (store != null) {store.dyPxPerFrame[storeSlot] = dy;}
     }
     
     public void setCollidesWithScreenBorders(boolean collidesWithScreenBorders) {
+        wake();
         this.collidesWithScreenBorders = collidesWithScreenBorders;
+        if (store != null) {store.collidesWithScreenBorders[storeSlot] = collidesWithScreenBorders;}
     }
 
     public void setCollidesWithEntities(boolean collidesWithEntities) {
+        wake();
         this.collidesWithEntities = collidesWithEntities;
+        if (store != null) {store.collidesWithEntities[storeSlot] = collidesWithEntities;}
     }
 
     public void setCollisionLayer(int collisionLayer) {
+        wake();
         this.collisionLayer = collisionLayer;
+        if (store != null) {store.collisionLayer[storeSlot] = collisionLayer;}
     }
     
     public void setColor(int color) {
         this.color = color;
+        if (store != null) {store.color[storeSlot] = color;}
+    }
+
+    // 0 is invisible and 255 opaque
+    public void setAlpha(int alpha) {
+        if (alpha < 0 || alpha > 255) {
+            throw new IllegalArgumentException("alpha must be between 0 and 255.");
+        }
+        this.alpha = alpha;
+    }
+
+    // writes the circle for a ScreenSnapshot, see readSnapshot()
+    public void writeSnapshot(ByteBuffer buffer) {
+        buffer.putDouble(getExactPositionX()).putDouble(getExactPositionY());
+        buffer.putDouble(store == null ? previousPositionX : store.previousX[storeSlot]);
+        buffer.putDouble(store == null ? previousPositionY : store.previousY[storeSlot]);
+        buffer.putInt(getDxPxPerFrame()).putInt(getDyPxPerFrame()).putInt(radius);
+        buffer.putInt(color).put((byte) alpha).putInt(renderLayer).putInt(collisionLayer);
+        buffer.put((byte) ((collidesWithScreenBorders ? 1 : 0) | (collidesWithEntities ? 2 : 0)));
+    }
+
+    // reads back what writeSnapshot() wrote, the shape kind before it was already read
+    static Circle readSnapshot(ByteBuffer buffer) {
+        double positionX = buffer.getDouble();
+        double positionY = buffer.getDouble();
+        double previousPositionX = buffer.getDouble();
+        double previousPositionY = buffer.getDouble();
+        int dx = buffer.getInt();
+        int dy = buffer.getInt();
+        int radius = buffer.getInt();
+        int color = buffer.getInt();
+        int alpha = buffer.get() & 0xff;
+        int renderLayer = buffer.getInt();
+
+        Circle circle = new Circle(radius, 0, 0, dx, dy, color, renderLayer);
+        circle.positionX = positionX;
+        circle.positionY = positionY;
+        circle.previousPositionX = previousPositionX;
+        circle.previousPositionY = previousPositionY;
+        circle.alpha = alpha;
+        circle.collisionLayer = buffer.getInt();
+        byte flags = buffer.get();
+        circle.collidesWithScreenBorders = (flags & 1) != 0;
+        circle.collidesWithEntities = (flags & 2) != 0;
+        return circle;
+    }
+
+    public void attachToStore(EntityStore store) {
+        if (this.store != null) {
+            detachFromStore();
+        }
+        storeSlot = store.allocate(this);
+        store.positionX[storeSlot] = positionX;
+        store.positionY[storeSlot] = positionY;
+        store.previousX[storeSlot] = previousPositionX;
+        store.previousY[storeSlot] = previousPositionY;
+        store.dxPxPerFrame[storeSlot] = dxPxPerFrame;
+        store.dyPxPerFrame[storeSlot] = dyPxPerFrame;
+        store.originX[storeSlot] = store.originY[storeSlot] = radius;
+        store.sizeX[storeSlot] = store.sizeY[storeSlot] = radius * 2;
+        store.color[storeSlot] = color;
+        store.renderLayer[storeSlot] = renderLayer;
+        store.collisionLayer[storeSlot] = collisionLayer;
+        store.collidesWithScreenBorders[storeSlot] = collidesWithScreenBorders;
+        store.collidesWithEntities[storeSlot] = collidesWithEntities;
+        this.store = store;
+    }
+
+    public void detachFromStore() {
+        if (store == null) {return;}
+
+        positionX = store.positionX[storeSlot];
+        positionY = store.positionY[storeSlot];
+        previousPositionX = store.previousX[storeSlot];
+        previousPositionY = store.previousY[storeSlot];
+        dxPxPerFrame = store.dxPxPerFrame[storeSlot];
+        dyPxPerFrame = store.dyPxPerFrame[storeSlot];
+        store.free(storeSlot);
+        store = null;
+    }
+
+    public void setStoreSlot(int slot) {
+        storeSlot = slot;
+    }
+
+    public int getStoreSlot() {
+        return storeSlot;
+    }
+
+    public EntityStore getStore() {
+        return store;
+    }
+
+    public void setLayerIndex(int index) {
+        layerIndex = index;
+    }
+
+    public int getLayerIndex() {
+        return layerIndex;
+    }
+
+    public void setActivityIndex(int index) {
+        activityIndex = index;
+    }
+
+    public int getActivityIndex() {
+        return activityIndex;
+    }
+
+    public void setPoolIndex(int index) {
+        poolIndex = index;
+    }
+
+    public int getPoolIndex() {
+        return poolIndex;
+    }
+
+    // a sleeping entity has to take part in the tick again once its motion or collisions change
+    private void wake() {
+        if (parent != null) {parent.wake(this);}
+    }
+
+    public void storePreviousPosition() {
+        if (store != null) {
+            store.previousX[storeSlot] = store.positionX[storeSlot];
+            store.previousY[storeSlot] = store.positionY[storeSlot];
+            return;
+        }
+        previousPositionX = positionX;
+        previousPositionY = positionY;
+    }
+
+    public void interpolatePosition(double alpha) {
+        if (store != null) {
+            simulatedPositionX = store.positionX[storeSlot];
+            simulatedPositionY = store.positionY[storeSlot];
+            store.positionX[storeSlot] = store.previousX[storeSlot] + (simulatedPositionX - store.previousX[storeSlot]) * alpha;
+            store.positionY[storeSlot] = store.previousY[storeSlot] + (simulatedPositionY - store.previousY[storeSlot]) * alpha;
+            return;
+        }
+        simulatedPositionX = positionX;
+        simulatedPositionY = positionY;
+        positionX = previousPositionX + (simulatedPositionX - previousPositionX) * alpha;
+        positionY = previousPositionY + (simulatedPositionY - previousPositionY) * alpha;
+    }
+
+    public void restorePosition() {
+        if (store != null) {
+            store.positionX[storeSlot] = simulatedPositionX;
+            store.positionY[storeSlot] = simulatedPositionY;
+            return;
+        }
+        positionX = simulatedPositionX;
+        positionY = simulatedPositionY;
     }
 
     public boolean equals(Object other) {
@@ -246,7 +493,7 @@ public class Circle implements Entity {
 
     public String toString() {
         return String.format("Circle with radius: %d, position x: %d, position y: %d, " +
-                "dx: %d, dy: %d, and color: 0x%06x", radius, (int) positionX, (int) positionY, dxPxPerFrame, dyPxPerFrame, color);
+                "dx: %d, dy: %d, and color: 0x%06x", radius, getPositionX(), getPositionY(), getDxPxPerFrame(), getDyPxPerFrame(), color);
     }
 
     public int compareTo(Entity other) {
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+// the narrowphase test for every pair of shape kinds, looked up with two array loads instead of instanceof chains.
+// registering a test for (a, b) also covers (b, a) by swapping the entities and flipping the contact normal, and the
+// same goes for responses. circles and rectangles respond to each other themselves, through the contact cache
+public final class CollisionDispatch {
+
+    public interface PairTest {
+        // fills the contact when the entities overlap, the contact is null when only the answer is needed
+        public boolean test(Entity first, Entity second, ContactManifold contact);
+    }
+
+    public interface PairResponse {
+        // called with the contact the pair's test found, for entities that overlap. the contact is reused for the next
+        // pair, so it can't be kept past the call
+        public void respond(Entity first, Entity second, ContactManifold contact);
+    }
+
+    // replaced as a whole on register, by [first kind][second kind]
+    private static volatile PairTest[][] tests = new PairTest[0][0];
+    private static volatile PairResponse[][] responses = new PairResponse[0][0];
+
+    // resolve() fills this instead of a new contact per pair. the dispatcher is shared by every screen, and screens
+    // resolve collisions on their own loop threads, so each thread has one
+    private static final ThreadLocal<ContactManifold> contacts = ThreadLocal.withInitial(ContactManifold::new);
+
+    static {
+        register(ShapeKind.CIRCLE, ShapeKind.CIRCLE,
+                (first, second, contact) -> Narrowphase.circles((Circle) first, (Circle) second, contact));
+        register(ShapeKind.CIRCLE, ShapeKind.RECTANGLE,
+                (first, second, contact) -> Narrowphase.circleRectangle((Circle) first, (Rectangle) second, contact));
+        register(ShapeKind.RECTANGLE, ShapeKind.RECTANGLE,
+                (first, second, contact) -> Narrowphase.rectangles((Rectangle) first, (Rectangle) second, contact));
+    }
+
+    private CollisionDispatch() {}
+
+    public static synchronized void register(int firstKind, int secondKind, PairTest test) {
+        if (firstKind < 0 || secondKind < 0) {
+            throw new IllegalArgumentException("collision tests can only be registered for shape kinds from ShapeKind.");
+        }
+        PairTest[][] table = grow(tests, new PairTest[0], Math.max(firstKind, secondKind));
+
+        table[firstKind][secondKind] = test;
+        if (firstKind != secondKind) {
+            table[secondKind][firstKind] = (first, second, contact) -> {
+                if (!test.test(second, first, contact)) {return false;}
+                if (contact != null) {contact.flip();}
+                return true;
+            };
+        }
+        tests = table;
+    }
+
+    // what happens to a pair of kinds that overlaps, pairs without a response only detect collisions
+    public static synchronized void registerResponse(int firstKind, int secondKind, PairResponse response) {
+        if (firstKind < 0 || secondKind < 0) {
+            throw new IllegalArgumentException("collision responses can only be registered for shape kinds from ShapeKind.");
+        }
+        PairResponse[][] table = grow(responses, new PairResponse[0], Math.max(firstKind, secondKind));
+
+        table[firstKind][secondKind] = response;
+        if (firstKind != secondKind) {
+            table[secondKind][firstKind] = (first, second, contact) -> {
+                contact.flip();
+                response.respond(second, first, contact);
+            };
+        }
+        responses = table;
+    }
+
+    // a copy of the table with room for the kind, the rows as long as the table
+    private static <T> T[][] grow(T[][] table, T[] emptyRow, int kind) {
+        int kinds = Math.max(table.length, kind + 1);
+        T[][] grown = Arrays.copyOf(table, kinds);
+        for (int row = 0; row < kinds; row++) {
+            grown[row] = Arrays.copyOf(row < table.length ? table[row] : emptyRow, kinds);
+        }
+        return grown;
+    }
+
+    public static boolean findContact(Entity first, Entity second, ContactManifold contact) {
+        return testFor(first, second).test(first, second, contact);
+    }
+
+    // finds the contact with the pair's test and hands it to the pair's response, for the resolveCollision() of
+    // entities that aren't circles or rectangles
+    public static void resolve(Entity first, Entity second) {
+        PairTest test = testFor(first, second);
+        PairResponse[][] table = responses;
+        int firstKind = first.getShapeKind();
+        int secondKind = second.getShapeKind();
+        if (firstKind >= table.length || secondKind >= table.length || table[firstKind][secondKind] == null) {return;}
+
+        ContactManifold contact = contacts.get();
+        if (test.test(first, second, contact)) {
+            table[firstKind][secondKind].respond(first, second, contact);
+        }
+    }
+
+    public static boolean hasTest(int firstKind, int secondKind) {
+        PairTest[][] table = tests;
+        return firstKind >= 0 && secondKind >= 0 && firstKind < table.length && secondKind < table.length &&
+                table[firstKind][secondKind] != null;
+    }
+
+    private static PairTest testFor(Entity first, Entity second) {
+        int firstKind = first.getShapeKind();
+        int secondKind = second.getShapeKind();
+        if (!hasTest(firstKind, secondKind)) {
+            throw new IllegalArgumentException("there is no collision test for " + first.getClass().getSimpleName() +
+                    " and " + second.getClass().getSimpleName() + ".");
+        }
+        return tests[firstKind][secondKind];
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+// the contacts between resting entities found in the last ticks, keyed by entity pair. when neither entity moved or
+// changed size since the contact was found it is reused instead of recomputed, which is the case for everything in a
+// stable pile. moving entities never end up where their last contact was found, so they skip the cache altogether
+public class ContactCache {
+
+    // open addressing with linear probing. the entries of removed entities are overwritten with DROPPED, so the
+    // probe chains stay intact, and the table only really lets go of entries when it is rebuilt
+    private Object[] firstKeys;
+    private Object[] secondKeys;
+    private double[] positions; // first x, first y, second x, second y per entry, from when the contact was found
+    private int[] sizes; // first width, first height, second width, second height per entry, from the same time
+    private double[] contacts; // normal x, normal y, depth per entry
+    private boolean[] touching;
+    private long[] lastUsedTicks;
+    private int mask;
+    private int shift; // picks the top bits of the hash, the well mixed ones
+    private int entryCount; // counting the dropped ones, which still take up their slot
+    private int droppedCount;
+
+    // entities removed from the screen since dropRemoved() last ran, and a set of them built while dropping
+    private Entity[] removed = new Entity[16];
+    private int removedCount;
+    private Entity[] removedSet = new Entity[32];
+
+    private final ContactManifold contact;
+    private long tick;
+    private long hits;
+    private long misses;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Object DROPPED = new Object();
+
+    public ContactCache() {
+        contact = new ContactManifold();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    // called once per tick, entries that go a whole tick without being looked up are dropped on the next rebuild
+    public void nextTick() {
+        tick++;
+    }
+
+    // finds the contact between two colliding entities, from the cache when possible, and responds to it
+    void resolve(ManagedEntity first, ManagedEntity second) {
+        if (first.getDxPxPerFrame() != 0 || first.getDyPxPerFrame() != 0 ||
+                second.getDxPxPerFrame() != 0 || second.getDyPxPerFrame() != 0) {
+            if (Narrowphase.findContact(first, second, contact)) {
+                Narrowphase.respond(first, second, contact);
+            }
+            return;
+        }
+
+        double firstX = first.getExactX();
+        double firstY = first.getExactY();
+        double secondX = second.getExactX();
+        double secondY = second.getExactY();
+        int firstWidth = first.getMaxX() - first.getMinX();
+        int firstHeight = first.getMaxY() - first.getMinY();
+        int secondWidth = second.getMaxX() - second.getMinX();
+        int secondHeight = second.getMaxY() - second.getMinY();
+
+        int slot = find(first, second);
+        boolean overlapping;
+        if (slot >= 0 && positions[slot * 4] == firstX && positions[slot * 4 + 1] == firstY &&
+                positions[slot * 4 + 2] == secondX && positions[slot * 4 + 3] == secondY &&
+                sizes[slot * 4] == firstWidth && sizes[slot * 4 + 1] == firstHeight &&
+                sizes[slot * 4 + 2] == secondWidth && sizes[slot * 4 + 3] == secondHeight) {
+            contact.set(contacts[slot * 3], contacts[slot * 3 + 1], contacts[slot * 3 + 2]);
+            overlapping = touching[slot];
+            hits++;
+        }
+        else {
+            overlapping = Narrowphase.findContact(first, second, contact);
+            misses++;
+
+            if (slot < 0) {
+                if ((entryCount + 1) * 2 > firstKeys.length) {
+                    rebuild();
+                }
+                slot = ~find(first, second);
+                firstKeys[slot] = first;
+                secondKeys[slot] = second;
+                entryCount++;
+            }
+            positions[slot * 4] = firstX;
+            positions[slot * 4 + 1] = firstY;
+            positions[slot * 4 + 2] = secondX;
+            positions[slot * 4 + 3] = secondY;
+            sizes[slot * 4] = firstWidth;
+            sizes[slot * 4 + 1] = firstHeight;
+            sizes[slot * 4 + 2] = secondWidth;
+            sizes[slot * 4 + 3] = secondHeight;
+            contacts[slot * 3] = contact.normalX;
+            contacts[slot * 3 + 1] = contact.normalY;
+            contacts[slot * 3 + 2] = contact.depth;
+            touching[slot] = overlapping;
+        }
+        lastUsedTicks[slot] = tick;
+
+        if (overlapping) {
+            Narrowphase.respond(first, second, contact);
+        }
+    }
+
+    // the slot holding the pair, or the complement of the empty slot it would go in
+    private int find(Object first, Object second) {
+        int hash = System.identityHashCode(first) * 31 + System.identityHashCode(second);
+        int slot = (hash * 0x9e3779b9) >>> shift;
+        while (firstKeys[slot] != null) {
+            if (firstKeys[slot] == first && secondKeys[slot] == second) {return slot;}
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    // called by the screen for every entity it removes, the entity's entries go with the next dropRemoved()
+    void remove(Entity entity) {
+        if (removedCount == removed.length) {
+            removed = Arrays.copyOf(removed, removedCount * 2);
+        }
+        removed[removedCount++] = entity;
+    }
+
+    // drops the entries of the entities removed since the last call, in one pass over the table
+    void dropRemoved() {
+        if (removedCount == 0) {return;}
+
+        if (entryCount > 0) {
+            int setCapacity = Integer.highestOneBit(removedCount * 2 - 1) << 1;
+            if (removedSet.length < setCapacity) {
+                removedSet = new Entity[setCapacity];
+            }
+            int setMask = removedSet.length - 1;
+            for (int i = 0; i < removedCount; i++) {
+                addRemoved(removed[i], setMask);
+            }
+            for (int slot = 0; slot < firstKeys.length; slot++) {
+                if (firstKeys[slot] == null || firstKeys[slot] == DROPPED) {continue;}
+                if (isRemoved(firstKeys[slot], setMask) || isRemoved(secondKeys[slot], setMask)) {
+                    firstKeys[slot] = secondKeys[slot] = DROPPED;
+                    droppedCount++;
+                }
+            }
+            Arrays.fill(removedSet, null);
+        }
+        Arrays.fill(removed, 0, removedCount, null);
+        removedCount = 0;
+    }
+
+    private void addRemoved(Entity entity, int setMask) {
+        int slot = System.identityHashCode(entity) & setMask;
+        while (removedSet[slot] != null) {
+            if (removedSet[slot] == entity) {return;}
+            slot = (slot + 1) & setMask;
+        }
+        removedSet[slot] = entity;
+    }
+
+    private boolean isRemoved(Object entity, int setMask) {
+        int slot = System.identityHashCode(entity) & setMask;
+        while (removedSet[slot] != null) {
+            if (removedSet[slot] == entity) {return true;}
+            slot = (slot + 1) & setMask;
+        }
+        return false;
+    }
+
+    // keeps the entries used this tick or the one before, and doubles the table if they still fill half of it
+    private void rebuild() {
+        Object[] oldFirstKeys = firstKeys;
+        Object[] oldSecondKeys = secondKeys;
+        double[] oldPositions = positions;
+        int[] oldSizes = sizes;
+        double[] oldContacts = contacts;
+        boolean[] oldTouching = touching;
+        long[] oldLastUsedTicks = lastUsedTicks;
+
+        int kept = 0;
+        for (int slot = 0; slot < oldFirstKeys.length; slot++) {
+            if (isKept(oldFirstKeys[slot], oldLastUsedTicks[slot])) {kept++;}
+        }
+        int capacity = oldFirstKeys.length;
+        while ((kept + 1) * 4 > capacity) {capacity *= 2;}
+        allocate(capacity);
+
+        for (int oldSlot = 0; oldSlot < oldFirstKeys.length; oldSlot++) {
+            if (!isKept(oldFirstKeys[oldSlot], oldLastUsedTicks[oldSlot])) {continue;}
+
+            int slot = ~find(oldFirstKeys[oldSlot], oldSecondKeys[oldSlot]);
+            firstKeys[slot] = oldFirstKeys[oldSlot];
+            secondKeys[slot] = oldSecondKeys[oldSlot];
+            System.arraycopy(oldPositions, oldSlot * 4, positions, slot * 4, 4);
+            System.arraycopy(oldSizes, oldSlot * 4, sizes, slot * 4, 4);
+            System.arraycopy(oldContacts, oldSlot * 3, contacts, slot * 3, 3);
+            touching[slot] = oldTouching[oldSlot];
+            lastUsedTicks[slot] = oldLastUsedTicks[oldSlot];
+            entryCount++;
+        }
+    }
+
+    private boolean isKept(Object firstKey, long lastUsedTick) {
+        return firstKey != null && firstKey != DROPPED && lastUsedTick >= tick - 1;
+    }
+
+    private void allocate(int capacity) {
+        firstKeys = new Object[capacity];
+        secondKeys = new Object[capacity];
+        positions = new double[capacity * 4];
+        sizes = new int[capacity * 4];
+        contacts = new double[capacity * 3];
+        touching = new boolean[capacity];
+        lastUsedTicks = new long[capacity];
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        entryCount = 0;
+        droppedCount = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(firstKeys, null);
+        Arrays.fill(secondKeys, null);
+        entryCount = 0;
+        droppedCount = 0;
+        Arrays.fill(removed, 0, removedCount, null);
+        removedCount = 0;
+    }
+
+    public int size() {
+        return entryCount - droppedCount;
+    }
+
+    // lookups answered from the cache and lookups that ran the narrowphase, since the cache was created
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
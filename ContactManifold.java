@@ -0,0 +1,36 @@
+// how two overlapping entities touch: the unit normal pointing from the first entity to the second,
+// and how far they would have to move apart along it to stop overlapping
+public class ContactManifold {
+
+    double normalX;
+    double normalY;
+    double depth;
+
+    void set(double normalX, double normalY, double depth) {
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.depth = depth;
+    }
+
+    // the same contact seen from the second entity
+    void flip() {
+        normalX = -normalX;
+        normalY = -normalY;
+    }
+
+    public double getNormalX() {
+        return normalX;
+    }
+
+    public double getNormalY() {
+        return normalY;
+    }
+
+    public double getDepth() {
+        return depth;
+    }
+
+    public String toString() {
+        return String.format("contact with normal (%.3f, %.3f) and depth %.3f", normalX, normalY, depth);
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.Arrays;
+
+// finds the entities overlapping the camera's view without looking at the others. entities are bucketed by the cell
+// their top left corner is in, and a query only visits the cells the view (grown by the biggest entity) touches,
+// then checks the bounds of the entities in them. entities only move between buckets when they change cells,
+// so a world full of entities that stay put costs a size and cell check per entity per frame. entities in the entity
+// store are checked straight from its arrays instead of through the entity objects. entities without bounds of their
+// own are kept out of the grid and are always visible
+public class CullingGrid {
+
+    private final int cellShift;
+
+    // cells hash into a fixed number of buckets, so the world has no edges. a bucket can hold several cells
+    private int[][] bucketEntities = new int[0][];
+    private int[] bucketSizes = new int[0];
+    private int bucketMask;
+
+    // per entity, by index into the entity array
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private int[] bucketOf = new int[0]; // -1 for entities without bounds
+    private int[] slotOf = new int[0]; // where in its bucket the entity is
+    private int[] storeSlots = new int[0]; // the entity's slot in the store, -1 when it isn't in one
+    private long[] visibleBits = new long[0]; // a query marks entities here and reads them back out in index order
+    private int[] unbounded = new int[0];
+    private int unboundedCount;
+    private int entityCount;
+    private EntityStore store;
+    private boolean stale = true;
+
+    private int maxEntityWidth;
+    private int maxEntityHeight;
+
+    private static final int DEFAULT_CELL_SIZE = 256;
+    private static final int MIN_BUCKETS = 1024;
+
+    public CullingGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public CullingGrid(int cellSize) {
+        if (cellSize < 1 || Integer.bitCount(cellSize) != 1) {
+            throw new IllegalArgumentException("culling cells must have a size that is a power of two.");
+        }
+        cellShift = Integer.numberOfTrailingZeros(cellSize);
+    }
+
+    // the next update() puts every entity in again, for when the entity array or the entity store changed
+    public void invalidate() {
+        stale = true;
+    }
+
+    // store can be null, otherwise the store the entities were synced with
+    public void update(Entity[] entities, int entityCount, EntityStore store) {
+        if (stale || entityCount != this.entityCount || store != this.store) {
+            rebuild(entities, entityCount, store);
+            return;
+        }
+
+        for (int i = 0; i < entityCount; i++) {
+            if (bucketOf[i] < 0) {continue;}
+
+            int slot = storeSlots[i];
+            int x;
+            int y;
+            if (slot >= 0) {
+                // the size is read even when the cell stays the same, an entity growing in place reaches further
+                maxEntityWidth = Math.max(maxEntityWidth, store.sizeX[slot]);
+                maxEntityHeight = Math.max(maxEntityHeight, store.sizeY[slot]);
+                x = ((int) store.positionX[slot] - store.originX[slot]) >> cellShift;
+                y = ((int) store.positionY[slot] - store.originY[slot]) >> cellShift;
+            }
+            else {
+                Entity entity = entities[i];
+                int minX = entity.getMinX();
+                int minY = entity.getMinY();
+                maxEntityWidth = Math.max(maxEntityWidth, entity.getMaxX() - minX);
+                maxEntityHeight = Math.max(maxEntityHeight, entity.getMaxY() - minY);
+                x = minX >> cellShift;
+                y = minY >> cellShift;
+            }
+            if (x == cellX[i] && y == cellY[i]) {continue;}
+
+            cellX[i] = x;
+            cellY[i] = y;
+            int bucket = bucketOf(x, y);
+            if (bucket != bucketOf[i]) {
+                removeFromBucket(i);
+                addToBucket(i, bucket);
+            }
+        }
+    }
+
+    // writes the indices of the entities overlapping the given world rectangle into visible in ascending order,
+    // which is draw order, and returns how many there are. visible has to fit every entity
+    public int query(Entity[] entities, int minX, int minY, int maxX, int maxY, int[] visible) {
+        if (minX >= maxX || minY >= maxY) {return 0;}
+
+        for (int u = 0; u < unboundedCount; u++) {
+            visibleBits[unbounded[u] >>> 6] |= 1L << unbounded[u];
+        }
+
+        // an entity reaches at most its size past the cell of its top left corner
+        int fromCellX = (minX - maxEntityWidth) >> cellShift;
+        int fromCellY = (minY - maxEntityHeight) >> cellShift;
+        int toCellX = (maxX - 1) >> cellShift;
+        int toCellY = (maxY - 1) >> cellShift;
+
+        long cellCount = (long) (toCellX - fromCellX + 1) * (toCellY - fromCellY + 1);
+        if (cellCount >= bucketSizes.length) {
+            // zoomed out far enough that visiting every bucket once is cheaper than visiting every cell
+            for (int bucket = 0; bucket < bucketSizes.length; bucket++) {
+                collect(entities, bucket, Integer.MIN_VALUE, 0, minX, minY, maxX, maxY);
+            }
+        }
+        else {
+            for (int y = fromCellY; y <= toCellY; y++) {
+                for (int x = fromCellX; x <= toCellX; x++) {
+                    collect(entities, bucketOf(x, y), x, y, minX, minY, maxX, maxY);
+                }
+            }
+        }
+
+        // sorting would cost more than a pass over one bit per entity, and it allocates when runs are merged
+        int count = 0;
+        int words = (entityCount + 63) >>> 6;
+        for (int word = 0; word < words; word++) {
+            long bits = visibleBits[word];
+            if (bits == 0) {continue;}
+
+            visibleBits[word] = 0;
+            while (bits != 0) {
+                visible[count++] = word << 6 | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+
+    // marks the entities of the bucket in the given cell that overlap the rectangle, any cell when x is MIN_VALUE
+    private void collect(Entity[] entities, int bucket, int x, int y, int minX, int minY, int maxX, int maxY) {
+        int[] members = bucketEntities[bucket];
+        for (int slot = 0; slot < bucketSizes[bucket]; slot++) {
+            int i = members[slot];
+            if (x != Integer.MIN_VALUE && (cellX[i] != x || cellY[i] != y)) {continue;} // another cell in the same bucket
+
+            Entity entity = entities[i];
+            if (entity.getMaxX() <= minX || entity.getMinX() >= maxX ||
+                    entity.getMaxY() <= minY || entity.getMinY() >= maxY) {continue;}
+            visibleBits[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private void rebuild(Entity[] entities, int entityCount, EntityStore store) {
+        int bucketCount = Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(1, entityCount / 4)) * 2);
+        if (bucketCount != bucketSizes.length) {
+            bucketEntities = new int[bucketCount][];
+            bucketSizes = new int[bucketCount];
+            bucketMask = bucketCount - 1;
+        }
+        else {
+            Arrays.fill(bucketSizes, 0);
+        }
+        if (cellX.length < entityCount) {
+            int capacity = Math.max(entityCount, cellX.length * 2);
+            cellX = new int[capacity];
+            cellY = new int[capacity];
+            bucketOf = new int[capacity];
+            slotOf = new int[capacity];
+            storeSlots = new int[capacity];
+            visibleBits = new long[(capacity + 63) >>> 6];
+        }
+
+        maxEntityWidth = 0;
+        maxEntityHeight = 0;
+        unboundedCount = 0;
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            if (!Entity.hasBounds(entity)) {
+                if (unboundedCount == unbounded.length) {
+                    unbounded = Arrays.copyOf(unbounded, Math.max(4, unboundedCount * 2));
+                }
+                unbounded[unboundedCount++] = i;
+                bucketOf[i] = -1;
+                storeSlots[i] = -1;
+                continue;
+            }
+            int minX = entity.getMinX();
+            int minY = entity.getMinY();
+            maxEntityWidth = Math.max(maxEntityWidth, entity.getMaxX() - minX);
+            maxEntityHeight = Math.max(maxEntityHeight, entity.getMaxY() - minY);
+            boolean stored = store != null && entity instanceof ManagedEntity && ((ManagedEntity) entity).getStore() == store;
+            storeSlots[i] = stored ? ((ManagedEntity) entity).getStoreSlot() : -1;
+            cellX[i] = minX >> cellShift;
+            cellY[i] = minY >> cellShift;
+            addToBucket(i, bucketOf(cellX[i], cellY[i]));
+        }
+        this.entityCount = entityCount;
+        this.store = store;
+        stale = false;
+    }
+
+    private void addToBucket(int entity, int bucket) {
+        int[] members = bucketEntities[bucket];
+        if (members == null) {
+            members = bucketEntities[bucket] = new int[4];
+        }
+        else if (bucketSizes[bucket] == members.length) {
+            members = bucketEntities[bucket] = Arrays.copyOf(members, members.length * 2);
+        }
+        slotOf[entity] = bucketSizes[bucket];
+        members[bucketSizes[bucket]++] = entity;
+        bucketOf[entity] = bucket;
+    }
+
+    // swaps the last entity of the bucket into the gap
+    private void removeFromBucket(int entity) {
+        int bucket = bucketOf[entity];
+        int[] members = bucketEntities[bucket];
+        int last = members[--bucketSizes[bucket]];
+        members[slotOf[entity]] = last;
+        slotOf[last] = slotOf[entity];
+    }
+
+    private int bucketOf(int x, int y) {
+        int hash = x * 0x9e3779b1 + y * 0x85ebca6b;
+        return (hash ^ hash >>> 16) & bucketMask;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+}
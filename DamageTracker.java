@@ -0,0 +1,220 @@
+import java.util.Arrays;
+
+public class DamageTracker {
+
+    private final int tileShift;
+    private final int tilesX;
+    private final int tilesY;
+    private final int width;
+    private final int height;
+    private final boolean[] dirtyTiles;
+    private int dirtyTileCount;
+    private boolean fullRedraw;
+
+    // where and how each entity was drawn last frame, by index into the entity array
+    private int[] lastMinX = new int[0];
+    private int[] lastMinY = new int[0];
+    private int[] lastMaxX = new int[0];
+    private int[] lastMaxY = new int[0];
+    private int[] lastColor = new int[0];
+    private int[] lastAlpha = new int[0];
+    private long[] lastAppearance = new long[0];
+
+    // regions as minX, minY, maxX, maxY in pixels, max exclusive
+    private int[] regions = new int[64];
+    private int regionCount;
+
+    private static final int DEFAULT_TILE_SIZE = 32;
+    private static final double FULL_REDRAW_FRACTION = 0.5; // past this, clearing everything is cheaper than tracking
+
+    public DamageTracker(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE);
+    }
+
+    public DamageTracker(int width, int height, int tileSize) {
+        if (tileSize < 1 || Integer.bitCount(tileSize) != 1) {
+            throw new IllegalArgumentException("damage tiles must have a size that is a power of two.");
+        }
+        this.width = width;
+        this.height = height;
+        tileShift = Integer.numberOfTrailingZeros(tileSize);
+        tilesX = (width + tileSize - 1) >> tileShift;
+        tilesY = (height + tileSize - 1) >> tileShift;
+        dirtyTiles = new boolean[tilesX * tilesY];
+        fullRedraw = true;
+    }
+
+    // the next frame is drawn in full, for when the entity array or the background changed
+    public void invalidate() {
+        fullRedraw = true;
+    }
+
+    // compares every entity against the last frame and marks where it was and where it is now as damaged,
+    // returns false when the whole frame has to be redrawn instead. nothing tells when an entity without bounds of its
+    // own changed, so the whole frame is redrawn while there is one
+    public boolean collect(Entity[] entities, int entityCount) {
+        boolean wasFullRedraw = fullRedraw;
+        fullRedraw = false;
+        boolean unbounded = false;
+
+        if (lastMinX.length < entityCount) {
+            int capacity = Math.max(entityCount, lastMinX.length * 2);
+            lastMinX = Arrays.copyOf(lastMinX, capacity);
+            lastMinY = Arrays.copyOf(lastMinY, capacity);
+            lastMaxX = Arrays.copyOf(lastMaxX, capacity);
+            lastMaxY = Arrays.copyOf(lastMaxY, capacity);
+            lastColor = Arrays.copyOf(lastColor, capacity);
+            lastAlpha = Arrays.copyOf(lastAlpha, capacity);
+            lastAppearance = Arrays.copyOf(lastAppearance, capacity);
+        }
+
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            int minX = entity.getMinX();
+            int minY = entity.getMinY();
+            int maxX = entity.getMaxX();
+            int maxY = entity.getMaxY();
+            int color = entity.getColor();
+            int alpha = entity.getAlpha();
+            long appearance = entity.getAppearanceKey();
+            unbounded |= !Entity.hasBounds(entity);
+
+            if (!wasFullRedraw && minX == lastMinX[i] && minY == lastMinY[i] && maxX == lastMaxX[i] &&
+                    maxY == lastMaxY[i] && color == lastColor[i] && alpha == lastAlpha[i] &&
+                    appearance == lastAppearance[i]) {continue;}
+
+            if (!wasFullRedraw) {
+                markDirty(lastMinX[i], lastMinY[i], lastMaxX[i], lastMaxY[i]);
+                markDirty(minX, minY, maxX, maxY);
+            }
+            lastMinX[i] = minX;
+            lastMinY[i] = minY;
+            lastMaxX[i] = maxX;
+            lastMaxY[i] = maxY;
+            lastColor[i] = color;
+            lastAlpha[i] = alpha;
+            lastAppearance[i] = appearance;
+        }
+
+        if (wasFullRedraw || unbounded || dirtyTileCount > dirtyTiles.length * FULL_REDRAW_FRACTION) {
+            clearTiles();
+            return false;
+        }
+        buildRegions();
+        clearTiles();
+        return true;
+    }
+
+    // clears every damaged region and redraws the entities overlapping it, using the bounds cached by collect()
+    public void drawRegions(Rasterizer rasterizer, Entity[] entities, int entityCount, int backgroundColor) {
+        for (int region = 0; region < regionCount; region++) {
+            int minX = regions[region * 4];
+            int minY = regions[region * 4 + 1];
+            int maxX = regions[region * 4 + 2];
+            int maxY = regions[region * 4 + 3];
+
+            rasterizer.setClip(minX, minY, maxX, maxY);
+            rasterizer.fillRect(minX, minY, maxX - minX, maxY - minY, backgroundColor);
+            for (int i = 0; i < entityCount; i++) {
+                if (lastMaxX[i] <= minX || lastMinX[i] >= maxX || lastMaxY[i] <= minY || lastMinY[i] >= maxY) {continue;}
+                entities[i].rasterize(rasterizer);
+            }
+        }
+        rasterizer.resetClip();
+    }
+
+    private void markDirty(int minX, int minY, int maxX, int maxY) {
+        int firstTileX = Math.max(minX, 0) >> tileShift;
+        int firstTileY = Math.max(minY, 0) >> tileShift;
+        int lastTileX = (Math.min(maxX, width) - 1) >> tileShift;
+        int lastTileY = (Math.min(maxY, height) - 1) >> tileShift;
+
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                int tile = tileY * tilesX + tileX;
+                if (!dirtyTiles[tile]) {
+                    dirtyTiles[tile] = true;
+                    dirtyTileCount++;
+                }
+            }
+        }
+    }
+
+    // merges dirty tiles into horizontal runs per tile row, and grows a run from the row above downwards
+    // instead when it covers exactly the same columns
+    private void buildRegions() {
+        regionCount = 0;
+
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            int minY = tileY << tileShift;
+            int maxY = Math.min((tileY + 1) << tileShift, height);
+
+            int tileX = 0;
+            while (tileX < tilesX) {
+                if (!dirtyTiles[tileY * tilesX + tileX]) {
+                    tileX++;
+                    continue;
+                }
+                int runStart = tileX;
+                while (tileX < tilesX && dirtyTiles[tileY * tilesX + tileX]) {tileX++;}
+
+                int minX = runStart << tileShift;
+                int maxX = Math.min(tileX << tileShift, width);
+
+                int above = findRegionEndingAt(minX, maxX, minY);
+                if (above >= 0) {
+                    regions[above * 4 + 3] = maxY;
+                }
+                else {
+                    addRegion(minX, minY, maxX, maxY);
+                }
+            }
+        }
+    }
+
+    private int findRegionEndingAt(int minX, int maxX, int maxY) {
+        for (int region = regionCount - 1; region >= 0; region--) {
+            if (regions[region * 4] == minX && regions[region * 4 + 2] == maxX && regions[region * 4 + 3] == maxY) {
+                return region;
+            }
+        }
+        return -1;
+    }
+
+    private void addRegion(int minX, int minY, int maxX, int maxY) {
+        if ((regionCount + 1) * 4 > regions.length) {
+            regions = Arrays.copyOf(regions, regions.length * 2);
+        }
+        regions[regionCount * 4] = minX;
+        regions[regionCount * 4 + 1] = minY;
+        regions[regionCount * 4 + 2] = maxX;
+        regions[regionCount * 4 + 3] = maxY;
+        regionCount++;
+    }
+
+    private void clearTiles() {
+        if (dirtyTileCount == 0) {return;}
+        Arrays.fill(dirtyTiles, false);
+        dirtyTileCount = 0;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    public int getRegionMinX(int region) {
+        return regions[region * 4];
+    }
+
+    public int getRegionMinY(int region) {
+        return regions[region * 4 + 1];
+    }
+
+    public int getRegionMaxX(int region) {
+        return regions[region * 4 + 2];
+    }
+
+    public int getRegionMaxY(int region) {
+        return regions[region * 4 + 3];
+    }
+}
@@ -1,5 +1,9 @@
 public interface Entity extends Comparable<Entity> {
 
+    // the bounds of entities that don't know theirs, big enough to cover any world
+    public static final int UNBOUNDED_MIN = -(1 << 28);
+    public static final int UNBOUNDED_MAX = 1 << 28;
+
     public int getColor(); //TODO make this stuff protected
     public void updatePosition();
     public boolean covers(int pixel);
@@ -11,4 +15,47 @@ public interface Entity extends Comparable<Entity> {
     public boolean collidesWith(Entity other);
     public void resolveCollision(Entity other);
 
+    // bounds in pixels, max exclusive. an entity that doesn't override them covers the whole world: it is paired with
+    // every other entity and always drawn, the broadphases and culling only skip entities with tighter bounds
+    public default int getMinX() {
+        return UNBOUNDED_MIN;
+    }
+
+    public default int getMinY() {
+        return UNBOUNDED_MIN;
+    }
+
+    public default int getMaxX() {
+        return UNBOUNDED_MAX;
+    }
+
+    public default int getMaxY() {
+        return UNBOUNDED_MAX;
+    }
+
+    public static boolean hasBounds(Entity entity) {
+        return entity.getMinX() != UNBOUNDED_MIN && entity.getMinY() != UNBOUNDED_MIN &&
+                entity.getMaxX() != UNBOUNDED_MAX && entity.getMaxY() != UNBOUNDED_MAX;
+    }
+
+    // picks the narrowphase test in CollisionDispatch, entities without one test collisions in collidesWith() themselves
+    public default int getShapeKind() {
+        return ShapeKind.NONE;
+    }
+
+    // 255 is opaque, anything lower is blended over what was drawn before it
+    public default int getAlpha() {
+        return 255;
+    }
+
+    // whatever else decides how the entity looks besides its bounds, color and alpha, packed into a long. dirty
+    // rectangles redraw the entity when it changes, so entities drawn from more than a color override it
+    public default long getAppearanceKey() {
+        return 0;
+    }
+
+    public default void rasterize(Rasterizer rasterizer) {
+        rasterizer.rasterizeCoverage(this);
+    }
+
 }
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a bounded lock free queue (Dmitry Vyukov's array queue) of entity commands, filled by any thread and
+// drained by the loop thread once per tick. slots are preallocated, so queueing a command never allocates
+final class EntityCommandQueue {
+
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+    static final int MUTATE = 2;
+    static final int ADD_ALL = 3;
+    static final int REMOVE_ALL = 4;
+    static final int SPAWN = 5;
+    static final int DESPAWN = 6;
+    static final int RESTORE = 7;
+
+    interface Handler {
+        public void apply(int command, Entity entity, Object argument, double value);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences; // a slot can be written when its sequence equals the tail, read when it is one past the head
+    private final int[] commands;
+    private final Entity[] entities;
+    private final Object[] arguments;
+    private final double[] values; // a number to go with the command, so it doesn't have to be boxed into the argument
+    private final AtomicLong tail;
+    private long head; // only the draining thread reads from the queue
+
+    // commands the draining thread queued while the queue was full, it can't wait for itself to make room
+    private int[] overflowCommands = new int[0];
+    private Entity[] overflowEntities = new Entity[0];
+    private Object[] overflowArguments = new Object[0];
+    private double[] overflowValues = new double[0];
+    private int overflowCount;
+
+    EntityCommandQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("the command queue capacity must be a power of two.");
+        }
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            sequences.set(slot, slot);
+        }
+        commands = new int[capacity];
+        entities = new Entity[capacity];
+        arguments = new Object[capacity];
+        values = new double[capacity];
+        tail = new AtomicLong();
+    }
+
+    // returns false instead of waiting when the queue is full
+    boolean offer(int command, Entity entity, Object argument, double value) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {break;}
+                position = tail.get();
+            }
+            else if (difference < 0) {
+                return false;
+            }
+            else {
+                position = tail.get();
+            }
+        }
+
+        int slot = (int) position & mask;
+        commands[slot] = command;
+        entities[slot] = entity;
+        arguments[slot] = argument;
+        values[slot] = value;
+        sequences.lazySet(slot, position + 1); // publishes the fields written above to the draining thread
+        return true;
+    }
+
+    // for the draining thread only, never fails and keeps its commands in order with the ones already queued
+    void offerFromDrainingThread(int command, Entity entity, Object argument, double value) {
+        if (overflowCount == 0 && offer(command, entity, argument, value)) {return;}
+
+        if (overflowCount == overflowCommands.length) {
+            int capacity = Math.max(16, overflowCount * 2);
+            overflowCommands = Arrays.copyOf(overflowCommands, capacity);
+            overflowEntities = Arrays.copyOf(overflowEntities, capacity);
+            overflowArguments = Arrays.copyOf(overflowArguments, capacity);
+            overflowValues = Arrays.copyOf(overflowValues, capacity);
+        }
+        overflowCommands[overflowCount] = command;
+        overflowEntities[overflowCount] = entity;
+        overflowArguments[overflowCount] = argument;
+        overflowValues[overflowCount] = value;
+        overflowCount++;
+    }
+
+    // applies the commands queued before the call in queue order, stopping early at one that is still being written
+    int drain(Handler handler) {
+        long end = tail.get();
+        int drained = 0;
+        while (head < end) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {break;}
+
+            int command = commands[slot];
+            Entity entity = entities[slot];
+            Object argument = arguments[slot];
+            double value = values[slot];
+            entities[slot] = null;
+            arguments[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+
+            handler.apply(command, entity, argument, value);
+            drained++;
+        }
+
+        // anything the handler queues from here on lands after these and waits for the next drain
+        int overflowed = overflowCount;
+        for (int i = 0; i < overflowed; i++) {
+            handler.apply(overflowCommands[i], overflowEntities[i], overflowArguments[i], overflowValues[i]);
+        }
+        int remaining = overflowCount - overflowed;
+        System.arraycopy(overflowCommands, overflowed, overflowCommands, 0, remaining);
+        System.arraycopy(overflowEntities, overflowed, overflowEntities, 0, remaining);
+        System.arraycopy(overflowArguments, overflowed, overflowArguments, 0, remaining);
+        System.arraycopy(overflowValues, overflowed, overflowValues, 0, remaining);
+        Arrays.fill(overflowEntities, remaining, overflowCount, null);
+        Arrays.fill(overflowArguments, remaining, overflowCount, null);
+        overflowCount = remaining;
+        return drained + overflowed;
+    }
+}
@@ -0,0 +1,188 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// recycles entities for scenes that spawn and kill lots of short lived ones, like particles. once the pool and the
+// screen have grown to the most entities alive at once, spawning and expiring entities no longer allocates
+public class EntityPool<T extends Entity> {
+
+    private final Screen screen;
+    private final Supplier<T> factory;
+
+    // entities ready to be acquired, guarded by the pool's monitor since any thread can acquire and release
+    private Entity[] free;
+    private int freeCount;
+
+    // spawned entities and how long they have left, only touched by the loop thread
+    private Entity[] live;
+    private double[] remainingMs;
+    private int liveCount;
+    private Entity[] expired;
+
+    public EntityPool(Screen screen, Supplier<T> factory, int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("a pool can't start with a negative capacity.");
+        }
+        this.screen = screen;
+        this.factory = factory;
+        free = new Entity[Math.max(initialCapacity, 16)];
+        for (int i = 0; i < initialCapacity; i++) {
+            free[freeCount++] = factory.get();
+        }
+        live = new Entity[free.length];
+        remainingMs = new double[free.length];
+        expired = new Entity[free.length];
+        screen.addEntityPool(this);
+    }
+
+    // an entity to set up and spawn, only created when the pool has run dry
+    @SuppressWarnings("unchecked")
+    public synchronized T acquire() {
+        if (freeCount == 0) {return factory.get();}
+
+        T entity = (T) free[--freeCount];
+        free[freeCount] = null;
+        return entity;
+    }
+
+    // for entities that were acquired but never spawned, spawned ones come back by themselves
+    public synchronized void release(T entity) {
+        push(entity);
+    }
+
+    // adds the entity to the screen at the start of the next tick, then removes it and returns it to the pool
+    // once it has been alive for lifetimeMs of simulated time
+    public void spawn(T entity, double lifetimeMs) {
+        if (!(lifetimeMs > 0)) {
+            throw new IllegalArgumentException("entities must be spawned with a lifetime above 0 ms.");
+        }
+        screen.queueCommand(EntityCommandQueue.SPAWN, entity, this, lifetimeMs);
+    }
+
+    // lives until despawned
+    public void spawn(T entity) {
+        spawn(entity, Double.POSITIVE_INFINITY);
+    }
+
+    // removes the entity before its lifetime is up, at the start of the next tick
+    public void despawn(T entity) {
+        screen.queueCommand(EntityCommandQueue.DESPAWN, entity, this, 0);
+    }
+
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    // only valid on the loop thread, or while the screen isn't running
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    // called by the screen on the loop thread
+    void spawned(Entity entity, double lifetimeMs) {
+        if (liveCount == live.length) {
+            live = Arrays.copyOf(live, liveCount * 2);
+            remainingMs = Arrays.copyOf(remainingMs, liveCount * 2);
+            expired = new Entity[liveCount * 2];
+        }
+        live[liveCount] = entity;
+        remainingMs[liveCount] = lifetimeMs;
+        if (entity instanceof ManagedEntity) {
+            ((ManagedEntity) entity).setPoolIndex(liveCount);
+        }
+        liveCount++;
+    }
+
+    // O(1) for the built in shapes, other entities are searched for. does nothing when the entity already expired
+    void despawned(Entity entity) {
+        int index = findLive(entity);
+        if (index < 0) {return;}
+
+        removeLive(index);
+        screen.removeNow(entity);
+        synchronized(this) {
+            push(entity);
+        }
+    }
+
+    private int findLive(Entity entity) {
+        if (entity instanceof ManagedEntity) {
+            int index = ((ManagedEntity) entity).getPoolIndex();
+            return index < liveCount && live[index] == entity ? index : -1;
+        }
+        for (int i = liveCount - 1; i >= 0; i--) {
+            if (live[i] == entity) {return i;}
+        }
+        return -1;
+    }
+
+    // the live entities as indices into the screen's entities and their remaining lifetimes, see ScreenSnapshot
+    void writeSnapshot(ByteBuffer buffer, Map<Entity, Integer> indices) {
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        int written = 0;
+        for (int i = 0; i < liveCount; i++) {
+            Integer index = indices.get(live[i]);
+            if (index == null) {continue;} // spawned since the entity array was last built
+
+            buffer.putInt(index).putDouble(remainingMs[i]);
+            written++;
+        }
+        buffer.putInt(countPosition, written);
+    }
+
+    // returns every live entity to the pool, for a screen being restored from a snapshot. they are already off the
+    // screen, the restored ones are handed back through spawned()
+    void clearLive() {
+        synchronized(this) {
+            for (int i = 0; i < liveCount; i++) {
+                push(live[i]);
+            }
+        }
+        Arrays.fill(live, 0, liveCount, null);
+        liveCount = 0;
+    }
+
+    // ages every live entity by one tick and removes the ones that ran out of time, returning them in one batch
+    void expire(double deltaTimeMs) {
+        int expiredCount = 0;
+        int i = 0;
+        while (i < liveCount) {
+            remainingMs[i] -= deltaTimeMs;
+            if (remainingMs[i] > 0) {
+                i++;
+                continue;
+            }
+            Entity entity = live[i];
+            removeLive(i); // the last entity moves into i, so i is looked at again
+            screen.removeNow(entity);
+            expired[expiredCount++] = entity;
+        }
+        if (expiredCount == 0) {return;}
+
+        synchronized(this) {
+            for (int j = 0; j < expiredCount; j++) {
+                push(expired[j]);
+                expired[j] = null;
+            }
+        }
+    }
+
+    private void removeLive(int index) {
+        liveCount--;
+        live[index] = live[liveCount];
+        remainingMs[index] = remainingMs[liveCount];
+        live[liveCount] = null;
+        if (live[index] instanceof ManagedEntity) {
+            ((ManagedEntity) live[index]).setPoolIndex(index);
+        }
+    }
+
+    private void push(Entity entity) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = entity;
+    }
+}
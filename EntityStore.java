@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+public class EntityStore {
+
+    // parallel arrays indexed by slot, read and written directly by the entities that live here
+    double[] positionX;
+    double[] positionY;
+    double[] previousX; // positions before the last fixed tick, for interpolated drawing
+    double[] previousY;
+    private double[] simulatedX; // the real positions while interpolated ones are swapped in
+    private double[] simulatedY;
+    int[] dxPxPerFrame;
+    int[] dyPxPerFrame;
+    int[] originX; // offset from the position to the left edge, the radius for circles and 0 for rectangles
+    int[] originY;
+    int[] sizeX;
+    int[] sizeY;
+    int[] color;
+    int[] renderLayer;
+    int[] collisionLayer;
+    boolean[] collidesWithScreenBorders;
+    boolean[] collidesWithEntities;
+    private ManagedEntity[] handles;
+    private int size;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    public EntityStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EntityStore(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("entity stores must have a capacity of at least 1.");
+        }
+        positionX = new double[capacity];
+        positionY = new double[capacity];
+        previousX = new double[capacity];
+        previousY = new double[capacity];
+        simulatedX = new double[capacity];
+        simulatedY = new double[capacity];
+        dxPxPerFrame = new int[capacity];
+        dyPxPerFrame = new int[capacity];
+        originX = new int[capacity];
+        originY = new int[capacity];
+        sizeX = new int[capacity];
+        sizeY = new int[capacity];
+        color = new int[capacity];
+        renderLayer = new int[capacity];
+        collisionLayer = new int[capacity];
+        collidesWithScreenBorders = new boolean[capacity];
+        collidesWithEntities = new boolean[capacity];
+        handles = new ManagedEntity[capacity];
+    }
+
+    // reserves a slot for the given entity, which is expected to fill it in
+    int allocate(ManagedEntity handle) {
+        if (size == handles.length) {
+            grow(size * 2);
+        }
+        handles[size] = handle;
+        return size++;
+    }
+
+    // frees a slot by moving the last entity into it, so slots stay packed
+    void free(int slot) {
+        int last = --size;
+        if (slot != last) {
+            positionX[slot] = positionX[last];
+            positionY[slot] = positionY[last];
+            previousX[slot] = previousX[last];
+            previousY[slot] = previousY[last];
+            dxPxPerFrame[slot] = dxPxPerFrame[last];
+            dyPxPerFrame[slot] = dyPxPerFrame[last];
+            originX[slot] = originX[last];
+            originY[slot] = originY[last];
+            sizeX[slot] = sizeX[last];
+            sizeY[slot] = sizeY[last];
+            color[slot] = color[last];
+            renderLayer[slot] = renderLayer[last];
+            collisionLayer[slot] = collisionLayer[last];
+            collidesWithScreenBorders[slot] = collidesWithScreenBorders[last];
+            collidesWithEntities[slot] = collidesWithEntities[last];
+            handles[slot] = handles[last];
+            handles[slot].setStoreSlot(slot);
+        }
+        handles[last] = null;
+    }
+
+    public void integrate(double deltaTimeSec, int windowWidth, int windowHeight) {
+        integrate(0, size, deltaTimeSec, windowWidth, windowHeight);
+    }
+
+    // same movement and wall bounces as Circle and Rectangle.updatePosition(), for the slots from (inclusive) to (exclusive)
+    public void integrate(int from, int to, double deltaTimeSec, int windowWidth, int windowHeight) {
+        for (int slot = from; slot < to; slot++) {
+            int dx = dxPxPerFrame[slot];
+            int dy = dyPxPerFrame[slot];
+            double x = positionX[slot] += dx * deltaTimeSec;
+            double y = positionY[slot] += dy * deltaTimeSec;
+
+            if (!collidesWithScreenBorders[slot]) {continue;}
+
+            int minX = (int) x - originX[slot];
+            int minY = (int) y - originY[slot];
+
+            if (minX + sizeX[slot] > windowWidth) {
+                dxPxPerFrame[slot] = -Math.abs(dx);
+            }
+            else if (minX < 0) {
+                dxPxPerFrame[slot] = Math.abs(dx);
+            }
+            if (minY + sizeY[slot] > windowHeight) {
+                dyPxPerFrame[slot] = -Math.abs(dy);
+            }
+            else if (minY < 0) {
+                dyPxPerFrame[slot] = Math.abs(dy);
+            }
+        }
+    }
+
+    public void storePreviousPositions() {
+        System.arraycopy(positionX, 0, previousX, 0, size);
+        System.arraycopy(positionY, 0, previousY, 0, size);
+    }
+
+    // swaps in positions the given fraction of the way from the previous tick to the current one,
+    // until restorePositions() is called
+    public void interpolate(double alpha) {
+        System.arraycopy(positionX, 0, simulatedX, 0, size);
+        System.arraycopy(positionY, 0, simulatedY, 0, size);
+        for (int slot = 0; slot < size; slot++) {
+            positionX[slot] = previousX[slot] + (simulatedX[slot] - previousX[slot]) * alpha;
+            positionY[slot] = previousY[slot] + (simulatedY[slot] - previousY[slot]) * alpha;
+        }
+    }
+
+    public void restorePositions() {
+        System.arraycopy(simulatedX, 0, positionX, 0, size);
+        System.arraycopy(simulatedY, 0, positionY, 0, size);
+    }
+
+    private void grow(int capacity) {
+        positionX = Arrays.copyOf(positionX, capacity);
+        positionY = Arrays.copyOf(positionY, capacity);
+        previousX = Arrays.copyOf(previousX, capacity);
+        previousY = Arrays.copyOf(previousY, capacity);
+        simulatedX = Arrays.copyOf(simulatedX, capacity);
+        simulatedY = Arrays.copyOf(simulatedY, capacity);
+        dxPxPerFrame = Arrays.copyOf(dxPxPerFrame, capacity);
+        dyPxPerFrame = Arrays.copyOf(dyPxPerFrame, capacity);
+        originX = Arrays.copyOf(originX, capacity);
+        originY = Arrays.copyOf(originY, capacity);
+        sizeX = Arrays.copyOf(sizeX, capacity);
+        sizeY = Arrays.copyOf(sizeY, capacity);
+        color = Arrays.copyOf(color, capacity);
+        renderLayer = Arrays.copyOf(renderLayer, capacity);
+        collisionLayer = Arrays.copyOf(collisionLayer, capacity);
+        collidesWithScreenBorders = Arrays.copyOf(collidesWithScreenBorders, capacity);
+        collidesWithEntities = Arrays.copyOf(collidesWithEntities, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+    }
+
+    public Entity getEntity(int slot) {
+        return handles[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,43 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("engine.Frame")
+@Label("Frame")
+@Category("Graphics Engine")
+@Description("Time spent in each phase of one frame, committed when JFR events are enabled on the screen")
+class FrameEvent extends Event {
+
+    @Label("Integration") @Timespan
+    long integrationNs;
+
+    @Label("Broadphase") @Timespan
+    long broadphaseNs;
+
+    @Label("Narrowphase") @Timespan
+    long narrowphaseNs;
+
+    @Label("Clear") @Timespan
+    long clearNs;
+
+    @Label("Rasterize") @Timespan
+    long rasterizeNs;
+
+    @Label("Present") @Timespan
+    long presentNs;
+
+    @Label("Candidate Pairs")
+    long candidatePairs;
+
+    @Label("Colliding Pairs")
+    long collidingPairs;
+
+    @Label("Pixels Written")
+    long pixelsWritten;
+
+    @Label("Bytes Allocated")
+    long bytesAllocated;
+}
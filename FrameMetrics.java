@@ -0,0 +1,131 @@
+import java.lang.management.ManagementFactory;
+
+import jdk.jfr.EventType;
+
+public class FrameMetrics {
+
+    public enum Phase {INTEGRATION, BROADPHASE, NARROWPHASE, CLEAR, RASTERIZE, PRESENT, FRAME}
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] histograms;
+    private final long[] frameNs; // phase times of the frame in progress, several ticks can add to one frame
+    private final com.sun.management.ThreadMXBean allocationCounter; // null when the JVM doesn't have one
+    private final EventType frameEventType;
+    private volatile boolean jfrEventsEnabled;
+
+    private long frameCandidatePairs;
+    private long frameCollidingPairs;
+    private long framePixelsWritten;
+    private long frameStartAllocatedBytes;
+
+    // written by the loop thread at the end of each frame, read by whoever polls for a snapshot
+    private volatile long lastCandidatePairs;
+    private volatile long lastCollidingPairs;
+    private volatile long lastPixelsWritten;
+    private volatile long lastBytesAllocated;
+
+    public FrameMetrics() {
+        histograms = new LatencyHistogram[PHASES.length];
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            histograms[phase] = new LatencyHistogram();
+        }
+        frameNs = new long[PHASES.length];
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocationCounter = (com.sun.management.ThreadMXBean) threads;
+        }
+        else {
+            allocationCounter = null;
+        }
+        frameEventType = EventType.getEventType(FrameEvent.class);
+    }
+
+    public void frameStarted() {
+        frameStartAllocatedBytes = allocatedBytes();
+    }
+
+    public void addPhaseTime(Phase phase, long ns) {
+        frameNs[phase.ordinal()] += ns;
+    }
+
+    public void addCollisionPairs(long candidatePairs, long collidingPairs) {
+        frameCandidatePairs += candidatePairs;
+        frameCollidingPairs += collidingPairs;
+    }
+
+    public void addPixelsWritten(long pixelsWritten) {
+        framePixelsWritten += pixelsWritten;
+    }
+
+    public void frameFinished(long frameTimeNs) {
+        frameNs[Phase.FRAME.ordinal()] = frameTimeNs;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            histograms[phase].record(frameNs[phase]);
+        }
+
+        long bytesAllocated = frameStartAllocatedBytes < 0 ? -1 : allocatedBytes() - frameStartAllocatedBytes;
+        if (jfrEventsEnabled && frameEventType.isEnabled()) {
+            commitEvent(bytesAllocated);
+        }
+
+        lastCandidatePairs = frameCandidatePairs;
+        lastCollidingPairs = frameCollidingPairs;
+        lastPixelsWritten = framePixelsWritten;
+        lastBytesAllocated = bytesAllocated;
+
+        java.util.Arrays.fill(frameNs, 0);
+        frameCandidatePairs = 0;
+        frameCollidingPairs = 0;
+        framePixelsWritten = 0;
+    }
+
+    private void commitEvent(long bytesAllocated) {
+        FrameEvent event = new FrameEvent();
+        event.integrationNs = frameNs[Phase.INTEGRATION.ordinal()];
+        event.broadphaseNs = frameNs[Phase.BROADPHASE.ordinal()];
+        event.narrowphaseNs = frameNs[Phase.NARROWPHASE.ordinal()];
+        event.clearNs = frameNs[Phase.CLEAR.ordinal()];
+        event.rasterizeNs = frameNs[Phase.RASTERIZE.ordinal()];
+        event.presentNs = frameNs[Phase.PRESENT.ordinal()];
+        event.candidatePairs = frameCandidatePairs;
+        event.collidingPairs = frameCollidingPairs;
+        event.pixelsWritten = framePixelsWritten;
+        event.bytesAllocated = bytesAllocated;
+        event.commit();
+    }
+
+    private long allocatedBytes() {
+        return allocationCounter == null ? -1 : allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public MetricsSnapshot snapshot() {
+        long[] p50Ns = new long[PHASES.length];
+        long[] p99Ns = new long[PHASES.length];
+        long[] maxNs = new long[PHASES.length];
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            p50Ns[phase] = histograms[phase].getPercentile(0.5);
+            p99Ns[phase] = histograms[phase].getPercentile(0.99);
+            maxNs[phase] = histograms[phase].getMax();
+        }
+        return new MetricsSnapshot(p50Ns, p99Ns, maxNs, histograms[Phase.FRAME.ordinal()].getCount(),
+                lastCandidatePairs, lastCollidingPairs, lastPixelsWritten, lastBytesAllocated);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    // commits an engine.Frame event for every frame while a JFR recording has it enabled
+    public void setJfrEventsEnabled(boolean jfrEventsEnabled) {
+        this.jfrEventsEnabled = jfrEventsEnabled;
+    }
+}
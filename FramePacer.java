@@ -0,0 +1,49 @@
+import java.util.concurrent.locks.LockSupport;
+
+public class FramePacer {
+
+    // parking wakes up late by up to this much, so the rest of the wait is spent spinning instead
+    private static final long SPIN_THRESHOLD_NS = 200_000;
+
+    private long frames;
+    private double meanFrameTimeNs;
+    private double frameTimeVarianceSum; // Welford's running sum of squared differences from the mean
+    private long lastFrameNs;
+
+    public void waitUntil(long deadlineNs) {
+        long remainingNs;
+        while ((remainingNs = deadlineNs - System.nanoTime()) > SPIN_THRESHOLD_NS) {
+            LockSupport.parkNanos(remainingNs - SPIN_THRESHOLD_NS);
+        }
+        while (deadlineNs - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    // call once at the start of each frame to track how evenly frames are spaced
+    public void frameStarted(long frameStartNs) {
+        if (lastFrameNs != 0) {
+            long frameTimeNs = frameStartNs - lastFrameNs;
+            frames++;
+            double difference = frameTimeNs - meanFrameTimeNs;
+            meanFrameTimeNs += difference / frames;
+            frameTimeVarianceSum += difference * (frameTimeNs - meanFrameTimeNs);
+        }
+        lastFrameNs = frameStartNs;
+    }
+
+    public void reset() {
+        frames = 0;
+        meanFrameTimeNs = 0;
+        frameTimeVarianceSum = 0;
+        lastFrameNs = 0;
+    }
+
+    public double getMeanFrameTimeMs() {
+        return meanFrameTimeNs / 1000000.0;
+    }
+
+    public double getFrameTimeStdDevMs() {
+        return frames < 2 ? 0 : Math.sqrt(frameTimeVarianceSum / (frames - 1)) / 1000000.0;
+    }
+}
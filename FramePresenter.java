@@ -0,0 +1,89 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// presents frames to the sinks on a thread of its own, so the loop can simulate and draw the next frame meanwhile.
+// three buffers are passed around without locks: the loop copies a finished frame into its back buffer and swaps it
+// with the ready one, the presenter swaps its front buffer with the ready one whenever a new frame is there.
+// a frame the presenter didn't get to before the next one was ready is skipped, so it is never more than a frame behind
+final class FramePresenter implements Runnable {
+
+    private static final int FRESH = 4; // set on the ready index while the presenter hasn't taken it yet
+    private static final int INDEX_MASK = 3;
+
+    private final int width;
+    private final int height;
+    private final BufferedImage[] images;
+    private final int[][] buffers;
+    private final AtomicInteger ready;
+    private int back; // only touched by the loop thread
+    private int front; // only touched by the presenter thread
+
+    private final Supplier<FrameSink[]> sinks;
+    private final Thread thread;
+    private volatile boolean stopped;
+    private volatile long framesPublished;
+    private volatile long framesPresented;
+
+    FramePresenter(int width, int height, Supplier<FrameSink[]> sinks) {
+        this.width = width;
+        this.height = height;
+        this.sinks = sinks;
+        images = new BufferedImage[3];
+        buffers = new int[3][];
+        for (int buffer = 0; buffer < 3; buffer++) {
+            images[buffer] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            buffers[buffer] = ((DataBufferInt) images[buffer].getRaster().getDataBuffer()).getData();
+        }
+        back = 0;
+        ready = new AtomicInteger(1);
+        front = 2;
+
+        thread = new Thread(this, "frame presenter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // called by the loop thread with the frame it just drew, costs it one copy of the framebuffer
+    void publish(int[] pixels) {
+        System.arraycopy(pixels, 0, buffers[back], 0, width * height);
+        back = ready.getAndSet(back | FRESH) & INDEX_MASK;
+        framesPublished++;
+        LockSupport.unpark(thread);
+    }
+
+    public void run() {
+        while (!stopped) {
+            if ((ready.get() & FRESH) == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            front = ready.getAndSet(front) & INDEX_MASK;
+            for (FrameSink sink : sinks.get()) {
+                sink.present(images[front], buffers[front], width, height);
+            }
+            framesPresented++;
+        }
+    }
+
+    // waits for the frame being presented to finish
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    long getFramesPublished() {
+        return framesPublished;
+    }
+
+    long getFramesPresented() {
+        return framesPresented;
+    }
+}
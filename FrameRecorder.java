@@ -0,0 +1,187 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+// records every presented frame to a file from a background thread. the loop only copies the framebuffer into
+// a ring of direct buffers, so recording costs it one memory copy per frame. when the writer falls behind and the
+// ring is full, frames are dropped instead of stalling the loop unless it was asked to wait
+public class FrameRecorder implements FrameSink {
+
+    public enum Format {
+        PPM, // a stream of binary PPM images, ffmpeg reads it with -f image2pipe -c:v ppm
+        RAW // the framebuffer as is, 4 bytes per pixel, ffmpeg reads it with -f rawvideo -pix_fmt bgr0 -s WxH
+    }
+
+    private final int width;
+    private final int height;
+    private final Format format;
+    private final boolean dropWhenFull;
+    private final FileChannel channel;
+    private final Thread writer;
+
+    // a single producer single consumer ring, the loop fills slots and the writer empties them in order
+    private final ByteBuffer[] slots;
+    private final IntBuffer[] slotPixels;
+    private volatile long published; // frames copied into the ring by the loop
+    private volatile long consumed; // frames written out by the writer
+    private volatile boolean closing;
+    private volatile IOException failure;
+    private volatile long framesDropped;
+
+    private final ByteBuffer header;
+    private final ByteBuffer rgb; // the writer's PPM conversion buffer
+    private final int[] row;
+    private final byte[] rowBytes;
+
+    private static final int DEFAULT_RING_FRAMES = 8;
+
+    public FrameRecorder(Path path, int width, int height) throws IOException {
+        this(path, width, height, Format.PPM, DEFAULT_RING_FRAMES, true);
+    }
+
+    public FrameRecorder(Path path, int width, int height, Format format, int ringFrames, boolean dropWhenFull) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("recorded frames must be at least 1 by 1 pixels.");
+        }
+        if (ringFrames < 1) {
+            throw new IllegalArgumentException("the recorder needs room for at least one frame.");
+        }
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.dropWhenFull = dropWhenFull;
+
+        slots = new ByteBuffer[ringFrames];
+        slotPixels = new IntBuffer[ringFrames];
+        for (int slot = 0; slot < ringFrames; slot++) {
+            // little endian so a RAW slot can go to the file as it is, 0xRRGGBB becomes B G R 0
+            slots[slot] = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+            slotPixels[slot] = slots[slot].asIntBuffer();
+        }
+        header = ByteBuffer.wrap(String.format("P6\n%d %d\n255\n", width, height).getBytes(StandardCharsets.US_ASCII));
+        rgb = format == Format.PPM ? ByteBuffer.allocateDirect(width * 3 * 64) : null;
+        row = new int[width];
+        rowBytes = new byte[width * 3];
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writer = new Thread(this::writeFrames, "frame recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void present(BufferedImage image, int[] pixels, int width, int height) {
+        if (width != this.width || height != this.height) {
+            throw new IllegalArgumentException("the frame size doesn't match the size the recorder was made for.");
+        }
+        if (closing || failure != null) {return;}
+
+        long frame = published;
+        while (frame - consumed >= slots.length) {
+            if (dropWhenFull) {
+                framesDropped++;
+                return;
+            }
+            LockSupport.parkNanos(100_000);
+            if (failure != null) {return;}
+        }
+
+        IntBuffer slot = slotPixels[(int) (frame % slots.length)];
+        slot.clear();
+        slot.put(pixels, 0, width * height);
+        published = frame + 1;
+        LockSupport.unpark(writer);
+    }
+
+    private void writeFrames() {
+        try {
+            while (true) {
+                long frame = consumed;
+                if (frame == published) {
+                    if (closing) {break;}
+                    LockSupport.parkNanos(1_000_000);
+                    continue;
+                }
+                writeFrame(slots[(int) (frame % slots.length)]);
+                consumed = frame + 1;
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void writeFrame(ByteBuffer slot) throws IOException {
+        slot.clear();
+        if (format == Format.RAW) {
+            writeFully(slot);
+            return;
+        }
+
+        header.clear();
+        writeFully(header);
+
+        IntBuffer pixels = slot.asIntBuffer();
+        rgb.clear();
+        for (int y = 0; y < height; y++) {
+            pixels.get(row);
+            for (int x = 0; x < width; x++) {
+                int color = row[x];
+                rowBytes[x * 3] = (byte) (color >> 16);
+                rowBytes[x * 3 + 1] = (byte) (color >> 8);
+                rowBytes[x * 3 + 2] = (byte) color;
+            }
+            if (rgb.remaining() < rowBytes.length) {
+                rgb.flip();
+                writeFully(rgb);
+                rgb.clear();
+            }
+            rgb.put(rowBytes);
+        }
+        rgb.flip();
+        writeFully(rgb);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // writes out the frames still in the ring, then closes the file
+    public void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    public long getFramesWritten() {
+        return consumed;
+    }
+
+    // only the loop thread drops frames, so this is exact when read from it
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,12 @@
+import java.awt.image.BufferedImage;
+
+public interface FrameSink {
+
+    // called on the loop thread once a frame is drawn, pixels is the data buffer behind image. with pipelined present
+    // it is called on the presenter thread instead, with a copy of the frame that stays untouched until it returns
+    public void present(BufferedImage image, int[] pixels, int width, int height);
+
+    // called by Screen.stop(), after the last frame was presented
+    public default void close() {}
+
+}
@@ -0,0 +1,327 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// streams presented frames to viewers in other processes, over a localhost port or a unix domain socket, see
+// FrameStreamViewer. every frame is compared with the one before in square tiles and only the tiles that changed are
+// sent, run length encoded, so a mostly static scene costs a few kilobytes a frame. everything runs on the thread
+// presenting and never blocks it: a viewer still receiving an earlier frame skips frames until it catches up, and then
+// gets every tile that changed in between. when nobody is watching the frames aren't even compared
+//
+// the stream is little endian. it starts with the int MAGIC, the short VERSION, the width and height as ints and
+// the tile size as a short. every frame after that is an int with the length of the rest of the message, the frame
+// number as a long, the tile count as an int and the tiles, each an int tile index (row by row) and runs covering the
+// tile's pixels row by row: a short n, followed by one RGB color repeated n times if n is positive, or by -n colors
+// if it is negative. colors are 3 bytes, red first
+public class FrameStreamServer implements FrameSink {
+
+    static final int MAGIC = 0x52545346; // "FSTR" in little endian
+    static final short VERSION = 1;
+    static final int TILE_SIZE = 32;
+
+    private static final int MIN_REPEAT = 3; // shorter runs of a color are cheaper as part of a literal run
+
+    // a connected viewer and the tiles that changed since it was last sent a frame
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer out; // in read mode, holds what is still to be sent
+        final boolean[] dirtyTiles;
+
+        Client(SocketChannel channel, int capacity, int tileCount) {
+            this.channel = channel;
+            out = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            dirtyTiles = new boolean[tileCount];
+            Arrays.fill(dirtyTiles, true);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int tilesAcross;
+    private final int tileCount;
+    private final ServerSocketChannel server;
+    private final Path socketPath; // null for a port
+    private final List<Client> clients = new ArrayList<>();
+
+    private final int[] previous; // the last frame compared, valid while someone was watching
+    private boolean previousValid;
+    private final int[] changedTiles;
+    private final boolean[] bandChanged; // per tile in a row of tiles
+    private final int[] tilePixels = new int[TILE_SIZE * TILE_SIZE];
+    private final int messageCapacity;
+    private long frame;
+    private boolean closed;
+
+    private volatile long bytesSent;
+    private volatile long framesSent; // over every viewer
+    private volatile long framesSkipped;
+    private volatile int clientCount;
+
+    // listens on the given port of the loopback address, 0 picks a free one
+    public FrameStreamServer(int port, int width, int height) throws IOException {
+        this(ServerSocketChannel.open(StandardProtocolFamily.INET), new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                null, width, height);
+    }
+
+    // listens on a unix domain socket at the given path, which must not exist yet and is deleted on close()
+    public FrameStreamServer(Path socketPath, int width, int height) throws IOException {
+        this(ServerSocketChannel.open(StandardProtocolFamily.UNIX), UnixDomainSocketAddress.of(socketPath),
+                socketPath, width, height);
+    }
+
+    private FrameStreamServer(ServerSocketChannel server, SocketAddress address, Path socketPath, int width, int height) throws IOException {
+        if (width < 1 || height < 1) {
+            server.close();
+            throw new IllegalArgumentException("streamed frames must be at least 1 by 1 pixels.");
+        }
+        this.width = width;
+        this.height = height;
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tileCount = tilesAcross * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        previous = new int[width * height];
+        changedTiles = new int[tileCount];
+        bandChanged = new boolean[tilesAcross];
+        // the worst case is a literal run per pixel, 2 bytes for its length and 3 for its color
+        messageCapacity = 16 + tileCount * 4 + width * height * 5;
+
+        this.server = server;
+        this.socketPath = socketPath;
+        server.bind(address);
+        server.configureBlocking(false);
+    }
+
+    public synchronized void present(BufferedImage image, int[] pixels, int width, int height) {
+        if (width != this.width || height != this.height) {
+            throw new IllegalArgumentException("the frame size doesn't match the size the stream was made for.");
+        }
+        if (closed) {return;}
+
+        acceptClients();
+        if (clients.isEmpty()) {
+            previousValid = false;
+            return;
+        }
+
+        int changedCount = findChangedTiles(pixels);
+        frame++;
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            for (int changed = 0; changed < changedCount; changed++) {
+                client.dirtyTiles[changedTiles[changed]] = true;
+            }
+            try {
+                if (!flush(client)) {
+                    framesSkipped++;
+                    continue;
+                }
+                if (encode(client, pixels)) {
+                    framesSent++;
+                    flush(client);
+                }
+            } catch (IOException e) {
+                disconnect(i); // the viewer went away
+            }
+        }
+    }
+
+    private void acceptClients() {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                if (socketPath == null) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                Client client = new Client(channel, messageCapacity, tileCount);
+                client.out.putInt(MAGIC).putShort(VERSION).putInt(width).putInt(height).putShort((short) TILE_SIZE);
+                client.out.flip();
+                clients.add(client);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        clientCount = clients.size();
+    }
+
+    // compares the frame with the last one tile by tile and copies the tiles that changed over it
+    private int findChangedTiles(int[] pixels) {
+        if (!previousValid) {
+            System.arraycopy(pixels, 0, previous, 0, width * height);
+            previousValid = true;
+            for (int tile = 0; tile < tileCount; tile++) {
+                changedTiles[tile] = tile;
+            }
+            return tileCount;
+        }
+
+        // whole rows are compared, which is faster than a tile's width at a time, skipping to the next tile on a change
+        int changedCount = 0;
+        for (int bandY = 0; bandY < height; bandY += TILE_SIZE) {
+            int maxY = Math.min(bandY + TILE_SIZE, height);
+            Arrays.fill(bandChanged, false);
+            for (int y = bandY; y < maxY; y++) {
+                int rowStart = y * width;
+                int x = 0;
+                while (x < width) {
+                    int mismatch = Arrays.mismatch(pixels, rowStart + x, rowStart + width, previous, rowStart + x, rowStart + width);
+                    if (mismatch < 0) {break;}
+                    int tileX = (x + mismatch) / TILE_SIZE;
+                    bandChanged[tileX] = true;
+                    x = (tileX + 1) * TILE_SIZE;
+                }
+            }
+
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                if (!bandChanged[tileX]) {continue;}
+
+                int minX = tileX * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, width - minX);
+                for (int y = bandY; y < maxY; y++) {
+                    System.arraycopy(pixels, y * width + minX, previous, y * width + minX, tileWidth);
+                }
+                changedTiles[changedCount++] = bandY / TILE_SIZE * tilesAcross + tileX;
+            }
+        }
+        return changedCount;
+    }
+
+    // writes what the channel takes without blocking, true once everything queued for the client was sent
+    private boolean flush(Client client) throws IOException {
+        if (!client.out.hasRemaining()) {return true;}
+
+        bytesSent += client.channel.write(client.out);
+        return !client.out.hasRemaining();
+    }
+
+    // queues the client's dirty tiles as a frame, false when none changed since its last one
+    private boolean encode(Client client, int[] pixels) {
+        ByteBuffer out = client.out;
+        out.clear();
+        out.position(16); // the header is filled in once the length and tile count are known
+        int encodedTiles = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            if (!client.dirtyTiles[tile]) {continue;}
+
+            client.dirtyTiles[tile] = false;
+            out.putInt(tile);
+            encodeTile(out, pixels, tile);
+            encodedTiles++;
+        }
+        if (encodedTiles == 0) {
+            out.clear().limit(0);
+            return false;
+        }
+        out.putInt(0, out.position() - 4).putLong(4, frame).putInt(12, encodedTiles);
+        out.flip();
+        return true;
+    }
+
+    private void encodeTile(ByteBuffer out, int[] pixels, int tile) {
+        int minX = tile % tilesAcross * TILE_SIZE;
+        int minY = tile / tilesAcross * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, width - minX);
+        int tileHeight = Math.min(TILE_SIZE, height - minY);
+        int count = tileWidth * tileHeight;
+        int[] tilePixels = this.tilePixels;
+        for (int row = 0; row < tileHeight; row++) {
+            System.arraycopy(pixels, (minY + row) * width + minX, tilePixels, row * tileWidth, tileWidth);
+        }
+
+        int i = 0;
+        while (i < count) {
+            int color = tilePixels[i];
+            int run = 1;
+            while (i + run < count && tilePixels[i + run] == color) {run++;}
+            if (run >= MIN_REPEAT) {
+                out.putShort((short) run);
+                putColor(out, color);
+                i += run;
+                continue;
+            }
+
+            // a literal run, up to where a long enough repeat starts
+            int end = i + run;
+            while (end < count && !(end + MIN_REPEAT <= count && tilePixels[end] == tilePixels[end + 1] &&
+                    tilePixels[end] == tilePixels[end + 2])) {
+                end++;
+            }
+            out.putShort((short) -(end - i));
+            for (; i < end; i++) {
+                putColor(out, tilePixels[i]);
+            }
+        }
+    }
+
+    private static void putColor(ByteBuffer out, int color) {
+        out.put((byte) (color >> 16)).put((byte) (color >> 8)).put((byte) color);
+    }
+
+    private void disconnect(int index) {
+        try {
+            clients.remove(index).channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        clientCount = clients.size();
+    }
+
+    // disconnects every viewer, frames still being sent are cut off
+    public synchronized void close() {
+        if (closed) {return;}
+
+        closed = true;
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            disconnect(i);
+        }
+        try {
+            server.close();
+            if (socketPath != null) {
+                Files.deleteIfExists(socketPath);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the port the server listens on, -1 for a unix domain socket
+    public int getPort() {
+        if (socketPath != null) {return -1;}
+        try {
+            return ((InetSocketAddress) server.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    // frames a viewer missed because it was still receiving an earlier one
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+}
@@ -0,0 +1,155 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+// shows the frames of a FrameStreamServer in a window. run it with the server's port, or the path of its unix domain
+// socket: java FrameStreamViewer 7700
+public class FrameStreamViewer {
+
+    private static final int HEADER_BYTES = 16;
+
+    private final SocketChannel channel;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesAcross;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private ByteBuffer message;
+    private long frame;
+
+    // reads the stream's header from a connected channel, blocking
+    public FrameStreamViewer(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header);
+        header.flip();
+        if (header.getInt() != FrameStreamServer.MAGIC) {
+            throw new IllegalArgumentException("the channel isn't streaming frames.");
+        }
+        short version = header.getShort();
+        if (version != FrameStreamServer.VERSION) {
+            throw new IllegalArgumentException("unsupported frame stream version " + version + ".");
+        }
+        width = header.getInt();
+        height = header.getInt();
+        tileSize = header.getShort();
+        tilesAcross = (width + tileSize - 1) / tileSize;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        message = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // waits for the next frame and draws its tiles over the last one, false once the server closed the stream
+    public boolean readFrame() throws IOException {
+        message.clear().limit(4);
+        if (!readFully(message)) {return false;}
+
+        int messageLength = message.getInt(0);
+        if (message.capacity() < messageLength) {
+            message = ByteBuffer.allocate(messageLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        message.clear().limit(messageLength);
+        if (!readFully(message)) {
+            throw new EOFException("the stream ended inside a frame.");
+        }
+        message.flip();
+
+        frame = message.getLong();
+        int tileCount = message.getInt();
+        for (int i = 0; i < tileCount; i++) {
+            decodeTile(message.getInt());
+        }
+        return true;
+    }
+
+    private void decodeTile(int tile) {
+        int minX = tile % tilesAcross * tileSize;
+        int minY = tile / tilesAcross * tileSize;
+        int tileWidth = Math.min(tileSize, width - minX);
+        int count = tileWidth * Math.min(tileSize, height - minY);
+
+        int i = 0;
+        while (i < count) {
+            int run = message.getShort();
+            if (run > 0) {
+                int color = getColor();
+                for (int end = i + run; i < end; i++) {
+                    pixels[(minY + i / tileWidth) * width + minX + i % tileWidth] = color;
+                }
+            }
+            else {
+                for (int end = i - run; i < end; i++) {
+                    pixels[(minY + i / tileWidth) * width + minX + i % tileWidth] = getColor();
+                }
+            }
+        }
+    }
+
+    private int getColor() {
+        return (message.get() & 0xff) << 16 | (message.get() & 0xff) << 8 | message.get() & 0xff;
+    }
+
+    // false when the stream ended before anything was read
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        boolean started = false;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (!started) {return false;}
+                throw new EOFException("the stream ended inside a frame.");
+            }
+            started = true;
+        }
+        return true;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // the server's number for the last frame read, frames the viewer was too slow for are skipped
+    public long getFrame() {
+        return frame;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java FrameStreamViewer <port or unix socket path>");
+            return;
+        }
+        SocketChannel channel = args[0].matches("\\d+")
+                ? SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])))
+                : SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+        FrameStreamViewer viewer = new FrameStreamViewer(channel);
+        WindowFrameSink window = new WindowFrameSink("frame stream", viewer.getWidth(), viewer.getHeight());
+        while (viewer.readFrame() && window.isDisplayable()) {
+            window.present(viewer.getImage(), viewer.getPixels(), viewer.getWidth(), viewer.getHeight());
+        }
+        viewer.close();
+        window.close();
+    }
+}
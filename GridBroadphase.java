@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+public class GridBroadphase implements Broadphase {
+
+    private final int cellShift;
+
+    // per entity data, cached once per tick so the pair loop never calls back into the entities
+    private int[] minX = new int[0];
+    private int[] minY = new int[0];
+    private int[] maxX = new int[0];
+    private int[] maxY = new int[0];
+    private int[] layer = new int[0];
+    private int[] unbounded = new int[0]; // colliding entities without bounds of their own, kept out of the grid
+    private int unboundedCount;
+
+    // entries are (entity, cell) pairs bucketed by cell hash with a counting sort
+    private int[] bucketStarts = new int[1];
+    private int[] entryEntity = new int[0];
+    private int[] entryCellX = new int[0];
+    private int[] entryCellY = new int[0];
+
+    private static final int DEFAULT_CELL_SIZE = 32;
+
+    public GridBroadphase() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public GridBroadphase(int cellSize) {
+        if (cellSize < 1 || Integer.bitCount(cellSize) != 1) {
+            throw new IllegalArgumentException("grid cells must have a size that is a power of two.");
+        }
+        cellShift = Integer.numberOfTrailingZeros(cellSize);
+    }
+
+    public void findPairs(Entity[] entities, int entityCount, PairBuffer pairs) {
+        int entryCount = cacheBounds(entities, entityCount);
+        if (entryCount > 0) {
+            findGridPairs(entityCount, entryCount, pairs);
+        }
+        if (unboundedCount > 0) {
+            findUnboundedPairs(entities, entityCount, pairs);
+        }
+    }
+
+    private void findGridPairs(int entityCount, int entryCount, PairBuffer pairs) {
+        int bucketMask = bucketCountFor(entryCount) - 1;
+        fillBuckets(entityCount, entryCount, bucketMask);
+
+        for (int bucket = 0; bucket <= bucketMask; bucket++) {
+            int end = bucketStarts[bucket + 1];
+
+            for (int a = bucketStarts[bucket]; a < end; a++) {
+                int first = entryEntity[a];
+                int cellX = entryCellX[a];
+                int cellY = entryCellY[a];
+
+                for (int b = a + 1; b < end; b++) {
+                    if (entryCellX[b] != cellX || entryCellY[b] != cellY) {continue;} // hash collision
+
+                    int second = entryEntity[b];
+                    if (layer[first] != layer[second] || !overlaps(first, second)) {continue;}
+
+                    // a pair sharing several cells is only reported from the cell holding the corner of their overlap
+                    if (Math.max(minX[first], minX[second]) >> cellShift != cellX ||
+                            Math.max(minY[first], minY[second]) >> cellShift != cellY) {continue;}
+
+                    pairs.add(Math.min(first, second), Math.max(first, second));
+                }
+            }
+        }
+    }
+
+    // an entity without bounds overlaps every other one on its layer
+    private void findUnboundedPairs(Entity[] entities, int entityCount, PairBuffer pairs) {
+        for (int u = 0; u < unboundedCount; u++) {
+            int first = unbounded[u];
+            for (int second = 0; second < entityCount; second++) {
+                if (second == first || !entities[second].collidesWithEntities() || layer[second] != layer[first]) {continue;}
+                if (second < first && !Entity.hasBounds(entities[second])) {continue;} // reported from the other one
+
+                pairs.add(Math.min(first, second), Math.max(first, second));
+            }
+        }
+    }
+
+    private int cacheBounds(Entity[] entities, int entityCount) {
+        if (minX.length < entityCount) {
+            int capacity = Math.max(entityCount, minX.length * 2);
+            minX = new int[capacity];
+            minY = new int[capacity];
+            maxX = new int[capacity];
+            maxY = new int[capacity];
+            layer = new int[capacity];
+        }
+
+        unboundedCount = 0;
+        int entryCount = 0;
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            if (!entity.collidesWithEntities()) {
+                maxX[i] = minX[i] = 0;
+                maxY[i] = minY[i] = 0;
+                continue;
+            }
+            layer[i] = entity.getCollisionLayer();
+            if (!Entity.hasBounds(entity)) {
+                maxX[i] = minX[i] = 0;
+                maxY[i] = minY[i] = 0;
+                if (unboundedCount == unbounded.length) {
+                    unbounded = Arrays.copyOf(unbounded, Math.max(4, unboundedCount * 2));
+                }
+                unbounded[unboundedCount++] = i;
+                continue;
+            }
+            minX[i] = entity.getMinX();
+            minY[i] = entity.getMinY();
+            maxX[i] = entity.getMaxX();
+            maxY[i] = entity.getMaxY();
+            entryCount += cellsCovered(i);
+        }
+        return entryCount;
+    }
+
+    private void fillBuckets(int entityCount, int entryCount, int bucketMask) {
+        if (bucketStarts.length < bucketMask + 2) {
+            bucketStarts = new int[bucketMask + 2];
+        }
+        if (entryEntity.length < entryCount) {
+            int capacity = Math.max(entryCount, entryEntity.length * 2);
+            entryEntity = new int[capacity];
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+        }
+        Arrays.fill(bucketStarts, 0, bucketMask + 2, 0);
+
+        for (int i = 0; i < entityCount; i++) {
+            if (maxX[i] <= minX[i] || maxY[i] <= minY[i]) {continue;}
+
+            for (int cellY = minY[i] >> cellShift; cellY <= (maxY[i] - 1) >> cellShift; cellY++) {
+                for (int cellX = minX[i] >> cellShift; cellX <= (maxX[i] - 1) >> cellShift; cellX++) {
+                    bucketStarts[hash(cellX, cellY, bucketMask) + 1]++;
+                }
+            }
+        }
+        for (int bucket = 0; bucket <= bucketMask; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+        // bucketStarts[bucket] now holds where each bucket starts, and is used as its fill cursor
+
+        for (int i = 0; i < entityCount; i++) {
+            if (maxX[i] <= minX[i] || maxY[i] <= minY[i]) {continue;}
+
+            for (int cellY = minY[i] >> cellShift; cellY <= (maxY[i] - 1) >> cellShift; cellY++) {
+                for (int cellX = minX[i] >> cellShift; cellX <= (maxX[i] - 1) >> cellShift; cellX++) {
+                    int entry = bucketStarts[hash(cellX, cellY, bucketMask)]++;
+                    entryEntity[entry] = i;
+                    entryCellX[entry] = cellX;
+                    entryCellY[entry] = cellY;
+                }
+            }
+        }
+
+        // filling advanced every start to the end of its bucket, so shift them back by one bucket
+        for (int bucket = bucketMask + 1; bucket > 0; bucket--) {
+            bucketStarts[bucket] = bucketStarts[bucket - 1];
+        }
+        bucketStarts[0] = 0;
+    }
+
+    private boolean overlaps(int first, int second) {
+        return minX[first] < maxX[second] && maxX[first] > minX[second] &&
+                minY[first] < maxY[second] && maxY[first] > minY[second];
+    }
+
+    private int cellsCovered(int entity) {
+        if (maxX[entity] <= minX[entity] || maxY[entity] <= minY[entity]) {return 0;}
+
+        int columns = ((maxX[entity] - 1) >> cellShift) - (minX[entity] >> cellShift) + 1;
+        int rows = ((maxY[entity] - 1) >> cellShift) - (minY[entity] >> cellShift) + 1;
+        return columns * rows;
+    }
+
+    private static int bucketCountFor(int entryCount) {
+        return Integer.highestOneBit(Math.max(entryCount, 8) - 1) << 1;
+    }
+
+    private static int hash(int cellX, int cellY, int bucketMask) {
+        return ((cellX * 73856093) ^ (cellY * 19349663)) & bucketMask;
+    }
+
+    public int getCellSize() {
+        return 1 << cellShift;
+    }
+}
@@ -0,0 +1,19 @@
+// a screen with no window, for running on machines without a display. frames are stepped by hand
+// with step(), or run as fast as possible with start(), and read back through getPixels()
+public class HeadlessScreen extends Screen {
+
+    public HeadlessScreen() {
+        this(DEFAULT_BACKGORUND_COLOR, DEFAULT_WINDOW_WIDTH, DEFAULT_WINDOW_HEIGHT);
+    }
+
+    public HeadlessScreen(int backgroundColor, int width, int height) {
+        super(backgroundColor, width, height);
+        setFramePacingEnabled(false);
+    }
+
+    public void step(int frames, double deltaTimeMs) {
+        for (int frame = 0; frame < frames; frame++) {
+            step(deltaTimeMs);
+        }
+    }
+}
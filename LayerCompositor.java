@@ -0,0 +1,143 @@
+// draws render layers with an opacity below 255 into an offscreen buffer and blends the finished layer over the frame
+// in one pass, so entities overlapping inside a translucent layer cover each other instead of showing through.
+// only the rows and columns the layer's entities touch are copied and blended
+final class LayerCompositor {
+
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+    private final int[] layerPixels;
+    private final Rasterizer layerRasterizer;
+
+    // render layer and opacity pairs sorted by layer, replaced as a whole so the loop can read it without locking
+    private volatile int[] opacities = new int[0];
+
+    LayerCompositor(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        layerPixels = new int[width * height];
+        layerRasterizer = new Rasterizer(layerPixels, width, height);
+    }
+
+    synchronized void setOpacity(int renderLayer, int opacity) {
+        int[] current = opacities;
+        int index = indexOf(current, renderLayer);
+        int[] updated;
+        if (index >= 0 && opacity == 255) {
+            updated = new int[current.length - 2];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 2, updated, index, current.length - index - 2);
+        }
+        else if (index >= 0) {
+            updated = current.clone();
+            updated[index + 1] = opacity;
+        }
+        else if (opacity != 255) {
+            int insertAt = ~index;
+            updated = new int[current.length + 2];
+            System.arraycopy(current, 0, updated, 0, insertAt);
+            updated[insertAt] = renderLayer;
+            updated[insertAt + 1] = opacity;
+            System.arraycopy(current, insertAt, updated, insertAt + 2, current.length - insertAt);
+        }
+        else {
+            return;
+        }
+        opacities = updated;
+    }
+
+    int getOpacity(int renderLayer) {
+        int[] current = opacities;
+        int index = indexOf(current, renderLayer);
+        return index >= 0 ? current[index + 1] : 255;
+    }
+
+    boolean hasTranslucentLayers() {
+        return opacities.length > 0;
+    }
+
+    // draws the entities in order, which has to be sorted by render layer, and returns the pixels written offscreen
+    // and composited. opaque layers go straight to the rasterizer
+    long drawEntities(Entity[] entities, int entityCount, Rasterizer rasterizer) {
+        int[] current = opacities;
+        long pixelsWritten = 0;
+
+        int first = 0;
+        while (first < entityCount) {
+            int renderLayer = entities[first].getRenderLayer();
+            int end = first + 1;
+            while (end < entityCount && entities[end].getRenderLayer() == renderLayer) {end++;}
+
+            int index = indexOf(current, renderLayer);
+            int opacity = index >= 0 ? current[index + 1] : 255;
+            if (opacity == 255) {
+                for (int i = first; i < end; i++) {
+                    entities[i].rasterize(rasterizer);
+                }
+            }
+            else if (opacity > 0) {
+                pixelsWritten += drawLayer(entities, first, end, opacity);
+            }
+            first = end;
+        }
+        return pixelsWritten;
+    }
+
+    private long drawLayer(Entity[] entities, int first, int end, int opacity) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = first; i < end; i++) {
+            minX = Math.min(minX, entities[i].getMinX());
+            minY = Math.min(minY, entities[i].getMinY());
+            maxX = Math.max(maxX, entities[i].getMaxX());
+            maxY = Math.max(maxY, entities[i].getMaxY());
+        }
+        // world bounds to pixels, with a pixel of slack for rounding when the camera moved or zoomed
+        int slack = layerRasterizer.hasDefaultView() ? 0 : 1;
+        minX = Math.max(Math.max(layerRasterizer.toScreenX(minX), 0) - slack, 0);
+        minY = Math.max(Math.max(layerRasterizer.toScreenY(minY), 0) - slack, 0);
+        maxX = Math.min(Math.min(layerRasterizer.toScreenX(maxX), width) + slack, width);
+        maxY = Math.min(Math.min(layerRasterizer.toScreenY(maxY), height) + slack, height);
+        if (minX >= maxX || minY >= maxY) {return 0;}
+
+        // the layer starts as a copy of the frame below it, so compositing leaves pixels no entity drew on as they were
+        for (int row = minY; row < maxY; row++) {
+            int rowOffset = row * width;
+            System.arraycopy(pixels, rowOffset + minX, layerPixels, rowOffset + minX, maxX - minX);
+        }
+        layerRasterizer.setClip(minX, minY, maxX, maxY);
+        for (int i = first; i < end; i++) {
+            entities[i].rasterize(layerRasterizer);
+        }
+        for (int row = minY; row < maxY; row++) {
+            int rowOffset = row * width;
+            Rasterizer.blend(pixels, layerPixels, rowOffset + minX, rowOffset + maxX, opacity);
+        }
+        return layerRasterizer.takePixelsWritten() + (long) (maxX - minX) * (maxY - minY);
+    }
+
+    void setView(double offsetX, double offsetY, double zoom) {
+        layerRasterizer.setView(offsetX, offsetY, zoom);
+    }
+
+    void setSpanCacheBudgetBytes(long budgetBytes) {
+        layerRasterizer.getSpanCache().setBudgetBytes(budgetBytes);
+    }
+
+    // the index of the layer's pair, or the complement of where it would be inserted
+    private static int indexOf(int[] opacities, int renderLayer) {
+        int low = 0;
+        int high = opacities.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int layer = opacities[middle * 2];
+            if (layer < renderLayer) {low = middle + 1;}
+            else if (layer > renderLayer) {high = middle - 1;}
+            else {return middle * 2;}
+        }
+        return ~(low * 2);
+    }
+}
@@ -0,0 +1,43 @@
+import java.nio.ByteBuffer;
+
+// entities whose state can be moved into an EntityStore, implemented by the built in shapes
+interface ManagedEntity extends Entity {
+
+    public void attachToStore(EntityStore store);
+    public void detachFromStore();
+    public void setStoreSlot(int slot);
+    public int getStoreSlot();
+    public EntityStore getStore();
+
+    // where the entity sits in its render layer on the screen, so it can be removed without searching
+    public void setLayerIndex(int index);
+    public int getLayerIndex();
+
+    // where the entity sits in the screen's entity array while sleeping is enabled, -1 before, see ActivityTracker
+    public void setActivityIndex(int index);
+    public int getActivityIndex();
+
+    // where the entity sits among the live entities of the EntityPool it was spawned from, so it can be despawned
+    // without searching
+    public void setPoolIndex(int index);
+    public int getPoolIndex();
+
+    // used by the fixed timestep loop to draw positions between two ticks
+    public void storePreviousPosition();
+    public void interpolatePosition(double alpha);
+    public void restorePosition();
+
+    // writes the entity's state for a ScreenSnapshot, after the shape kind it is read back by
+    public void writeSnapshot(ByteBuffer buffer);
+
+    // used by the narrowphase to respond to contacts
+    public double getExactX(); // the unrounded center of a circle, top left corner of a rectangle
+    public double getExactY();
+    public void translate(double byX, double byY); // moves without resetting the interpolation like the setters do
+    public double getInverseMass(); // from the area, so bigger entities get pushed around less
+    public int getDxPxPerFrame();
+    public int getDyPxPerFrame();
+    public void setDxPxPerFrame(int dx);
+    public void setDyPxPerFrame(int dy);
+
+}
@@ -0,0 +1,68 @@
+// percentiles of each phase over every frame recorded so far, plus the counters of the most recent frame
+public class MetricsSnapshot {
+
+    private final long[] p50Ns;
+    private final long[] p99Ns;
+    private final long[] maxNs;
+    private final long frames;
+    private final long candidatePairs;
+    private final long collidingPairs;
+    private final long pixelsWritten;
+    private final long bytesAllocated;
+
+    MetricsSnapshot(long[] p50Ns, long[] p99Ns, long[] maxNs, long frames,
+            long candidatePairs, long collidingPairs, long pixelsWritten, long bytesAllocated) {
+        this.p50Ns = p50Ns;
+        this.p99Ns = p99Ns;
+        this.maxNs = maxNs;
+        this.frames = frames;
+        this.candidatePairs = candidatePairs;
+        this.collidingPairs = collidingPairs;
+        this.pixelsWritten = pixelsWritten;
+        this.bytesAllocated = bytesAllocated;
+    }
+
+    public long getP50Ns(FrameMetrics.Phase phase) {
+        return p50Ns[phase.ordinal()];
+    }
+
+    public long getP99Ns(FrameMetrics.Phase phase) {
+        return p99Ns[phase.ordinal()];
+    }
+
+    public long getMaxNs(FrameMetrics.Phase phase) {
+        return maxNs[phase.ordinal()];
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getCandidatePairs() {
+        return candidatePairs;
+    }
+
+    public long getCollidingPairs() {
+        return collidingPairs;
+    }
+
+    public long getPixelsWritten() {
+        return pixelsWritten;
+    }
+
+    // only counts allocations on the loop thread, -1 when the JVM can't measure them
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("%d frames%n", frames));
+        for (FrameMetrics.Phase phase : FrameMetrics.Phase.values()) {
+            text.append(String.format("%-12s p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n", phase.name().toLowerCase(),
+                    getP50Ns(phase) / 1000000.0, getP99Ns(phase) / 1000000.0, getMaxNs(phase) / 1000000.0));
+        }
+        text.append(String.format("last frame: %d candidate pairs, %d colliding, %d pixels written, %d bytes allocated",
+                candidatePairs, collidingPairs, pixelsWritten, bytesAllocated));
+        return text.toString();
+    }
+}
@@ -0,0 +1,139 @@
+// exact overlap tests between the built in shapes on their unrounded positions, and the response to a contact
+public final class Narrowphase {
+
+    private static final double RESTITUTION = 1; // perfectly elastic, like bouncing off the screen borders
+    private static final double CORRECTION_SLOP_PX = 0.5; // overlap left alone so resting contacts don't jitter
+    private static final double CORRECTION_FRACTION = 0.8; // how much of the rest is pushed apart per tick
+
+    private Narrowphase() {}
+
+    // fills the contact when the two entities overlap, the contact can be null when only the answer is needed
+    public static boolean findContact(Entity first, Entity second, ContactManifold contact) {
+        return CollisionDispatch.findContact(first, second, contact);
+    }
+
+    public static boolean circles(Circle first, Circle second, ContactManifold contact) {
+        double distanceX = second.getExactPositionX() - first.getExactPositionX();
+        double distanceY = second.getExactPositionY() - first.getExactPositionY();
+        double distanceSquared = distanceX * distanceX + distanceY * distanceY;
+        int radii = first.getRadius() + second.getRadius();
+        if (distanceSquared >= radii * radii) {return false;}
+        if (contact == null) {return true;}
+
+        if (distanceSquared == 0) {
+            contact.set(1, 0, radii); // same center, any direction pushes them apart
+            return true;
+        }
+        double distance = Math.sqrt(distanceSquared);
+        contact.set(distanceX / distance, distanceY / distance, radii - distance);
+        return true;
+    }
+
+    // compares the circle center to the closest point of the rectangle, instead of testing the corners one by one
+    public static boolean circleRectangle(Circle circle, Rectangle rectangle, ContactManifold contact) {
+        double centerX = circle.getExactPositionX();
+        double centerY = circle.getExactPositionY();
+        double minX = rectangle.getExactTopLeftX();
+        double minY = rectangle.getExactTopLeftY();
+        double maxX = minX + rectangle.getWidth();
+        double maxY = minY + rectangle.getHeight();
+        int radius = circle.getRadius();
+
+        double closestX = Math.max(minX, Math.min(centerX, maxX));
+        double closestY = Math.max(minY, Math.min(centerY, maxY));
+        double distanceX = closestX - centerX;
+        double distanceY = closestY - centerY;
+        double distanceSquared = distanceX * distanceX + distanceY * distanceY;
+        if (distanceSquared >= radius * radius) {return false;}
+        if (contact == null) {return true;}
+
+        if (distanceSquared > 0) {
+            double distance = Math.sqrt(distanceSquared);
+            contact.set(distanceX / distance, distanceY / distance, radius - distance);
+            return true;
+        }
+
+        // the center is inside the rectangle, so the circle gets pushed out through the nearest edge
+        double toLeft = centerX - minX;
+        double toRight = maxX - centerX;
+        double toTop = centerY - minY;
+        double toBottom = maxY - centerY;
+        double nearest = Math.min(Math.min(toLeft, toRight), Math.min(toTop, toBottom));
+        if (nearest == toLeft) {
+            contact.set(1, 0, radius + toLeft);
+        }
+        else if (nearest == toRight) {
+            contact.set(-1, 0, radius + toRight);
+        }
+        else if (nearest == toTop) {
+            contact.set(0, 1, radius + toTop);
+        }
+        else {
+            contact.set(0, -1, radius + toBottom);
+        }
+        return true;
+    }
+
+    public static boolean rectangles(Rectangle first, Rectangle second, ContactManifold contact) {
+        double firstMinX = first.getExactTopLeftX();
+        double firstMinY = first.getExactTopLeftY();
+        double secondMinX = second.getExactTopLeftX();
+        double secondMinY = second.getExactTopLeftY();
+
+        double overlapX = Math.min(firstMinX + first.getWidth(), secondMinX + second.getWidth()) - Math.max(firstMinX, secondMinX);
+        double overlapY = Math.min(firstMinY + first.getHeight(), secondMinY + second.getHeight()) - Math.max(firstMinY, secondMinY);
+        if (overlapX <= 0 || overlapY <= 0) {return false;}
+        if (contact == null) {return true;}
+
+        // separate along the axis with the least overlap
+        if (overlapX < overlapY) {
+            boolean secondIsRight = secondMinX * 2 + second.getWidth() >= firstMinX * 2 + first.getWidth();
+            contact.set(secondIsRight ? 1 : -1, 0, overlapX);
+        }
+        else {
+            boolean secondIsBelow = secondMinY * 2 + second.getHeight() >= firstMinY * 2 + first.getHeight();
+            contact.set(0, secondIsBelow ? 1 : -1, overlapY);
+        }
+        return true;
+    }
+
+    // goes through the screen's contact cache when the entities are on one
+    static void resolve(ManagedEntity first, ManagedEntity second, Screen screen) {
+        if (screen != null) {
+            screen.getContactCache().resolve(first, second);
+            return;
+        }
+        ContactManifold contact = new ContactManifold();
+        if (findContact(first, second, contact)) {
+            respond(first, second, contact);
+        }
+    }
+
+    // bounces the entities off each other with an impulse along the contact normal, weighted by their areas,
+    // then pushes them apart by most of the overlap so they don't sink into each other over several ticks
+    static void respond(ManagedEntity first, ManagedEntity second, ContactManifold contact) {
+        double firstInverseMass = first.getInverseMass();
+        double secondInverseMass = second.getInverseMass();
+        double inverseMassSum = firstInverseMass + secondInverseMass;
+        if (inverseMassSum == 0) {return;}
+
+        int firstDx = first.getDxPxPerFrame();
+        int firstDy = first.getDyPxPerFrame();
+        int secondDx = second.getDxPxPerFrame();
+        int secondDy = second.getDyPxPerFrame();
+        double approachSpeed = (secondDx - firstDx) * contact.normalX + (secondDy - firstDy) * contact.normalY;
+
+        if (approachSpeed < 0) { // already moving apart otherwise
+            double impulse = -(1 + RESTITUTION) * approachSpeed / inverseMassSum;
+            first.setDxPxPerFrame((int) Math.round(firstDx - impulse * firstInverseMass * contact.normalX));
+            first.setDyPxPerFrame((int) Math.round(firstDy - impulse * firstInverseMass * contact.normalY));
+            second.setDxPxPerFrame((int) Math.round(secondDx + impulse * secondInverseMass * contact.normalX));
+            second.setDyPxPerFrame((int) Math.round(secondDy + impulse * secondInverseMass * contact.normalY));
+        }
+
+        double correction = Math.max(contact.depth - CORRECTION_SLOP_PX, 0) * CORRECTION_FRACTION / inverseMassSum;
+        if (correction == 0) {return;}
+        first.translate(-contact.normalX * correction * firstInverseMass, -contact.normalY * correction * firstInverseMass);
+        second.translate(contact.normalX * correction * secondInverseMass, contact.normalY * correction * secondInverseMass);
+    }
+}
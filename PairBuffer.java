@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+public class PairBuffer {
+
+    private int[] first;
+    private int[] second;
+    private int size;
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    public PairBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PairBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("pair buffers must have a capacity of at least 1.");
+        }
+        first = new int[capacity];
+        second = new int[capacity];
+    }
+
+    public void add(int firstIndex, int secondIndex) {
+        if (size == first.length) {
+            first = Arrays.copyOf(first, size * 2);
+            second = Arrays.copyOf(second, size * 2);
+        }
+        first[size] = firstIndex;
+        second[size] = secondIndex;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFirst(int pair) {
+        return first[pair];
+    }
+
+    public int getSecond(int pair) {
+        return second[pair];
+    }
+}
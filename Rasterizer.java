@@ -0,0 +1,398 @@
+import java.util.Arrays;
+
+public final class Rasterizer {
+
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    private int clipMinX;
+    private int clipMinY;
+    private int clipMaxX; // exclusive
+    private int clipMaxY; // exclusive
+
+    // the camera's view of the world for this frame, entities map their world positions to pixels through it
+    private double viewX;
+    private double viewY;
+    private double zoom = 1;
+
+    private long pixelsWritten; // since the last takePixelsWritten(), for the frame metrics
+    private final SpanCache spanCache;
+    private final int[] belowRow; // scratch rows for blending images, see blendTexels()
+    private final int[] texelRow;
+
+    private static final int VECTORIZED_BLEND_MIN_PIXELS = 64;
+
+    public Rasterizer(int[] pixels, int width, int height) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("the pixel buffer is smaller than the given width and height.");
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        spanCache = new SpanCache();
+        belowRow = new int[width];
+        texelRow = new int[width];
+        resetClip();
+    }
+
+    public void setClip(int minX, int minY, int maxX, int maxY) {
+        clipMinX = Math.max(minX, 0);
+        clipMinY = Math.max(minY, 0);
+        clipMaxX = Math.min(maxX, width);
+        clipMaxY = Math.min(maxY, height);
+    }
+
+    public void resetClip() {
+        setClip(0, 0, width, height);
+    }
+
+    public void setView(double offsetX, double offsetY, double zoom) {
+        viewX = offsetX;
+        viewY = offsetY;
+        this.zoom = zoom;
+    }
+
+    // the pixel column a world x position is drawn at
+    public int toScreenX(int worldX) {
+        return (int) Math.floor((worldX - viewX) * zoom);
+    }
+
+    public int toScreenY(int worldY) {
+        return (int) Math.floor((worldY - viewY) * zoom);
+    }
+
+    // how many pixels a world length covers, never less than one
+    public int toScreenLength(int worldLength) {
+        if (zoom == 1) {return worldLength;}
+        return Math.max(1, (int) Math.round(worldLength * zoom));
+    }
+
+    public boolean hasDefaultView() {
+        return viewX == 0 && viewY == 0 && zoom == 1;
+    }
+
+    // fills the pixels from xStart (inclusive) to xEnd (exclusive) on the given row
+    public void fillSpan(int row, int xStart, int xEnd, int color) {
+        if (row < clipMinY || row >= clipMaxY) {return;}
+
+        int start = Math.max(xStart, clipMinX);
+        int end = Math.min(xEnd, clipMaxX);
+        if (start >= end) {return;}
+
+        int rowOffset = row * width;
+        Arrays.fill(pixels, rowOffset + start, rowOffset + end, color);
+        pixelsWritten += end - start;
+    }
+
+    // blends the color over the span with the given alpha, 255 is the same as fillSpan() and 0 draws nothing
+    public void fillSpan(int row, int xStart, int xEnd, int color, int alpha) {
+        if (alpha >= 255) {
+            fillSpan(row, xStart, xEnd, color);
+            return;
+        }
+        if (alpha <= 0 || row < clipMinY || row >= clipMaxY) {return;}
+
+        int start = Math.max(xStart, clipMinX);
+        int end = Math.min(xEnd, clipMaxX);
+        if (start >= end) {return;}
+
+        int rowOffset = row * width;
+        blend(pixels, rowOffset + start, rowOffset + end, color, alpha);
+        pixelsWritten += end - start;
+    }
+
+    // fills a span table from the SpanCache with its origin at the given pixel
+    public void fillSpans(int[] spans, int originX, int originY, int color) {
+        int firstRow = originY + spans[0];
+        int rowCount = (spans.length - 1) >> 1;
+        int fromRow = Math.max(0, clipMinY - firstRow);
+        int toRow = Math.min(rowCount, clipMaxY - firstRow);
+
+        for (int row = fromRow; row < toRow; row++) {
+            int start = Math.max(originX + spans[1 + row * 2], clipMinX);
+            int end = Math.min(originX + spans[2 + row * 2], clipMaxX);
+            if (start >= end) {continue;}
+
+            int rowOffset = (firstRow + row) * width;
+            Arrays.fill(pixels, rowOffset + start, rowOffset + end, color);
+            pixelsWritten += end - start;
+        }
+    }
+
+    public void fillSpans(int[] spans, int originX, int originY, int color, int alpha) {
+        if (alpha >= 255) {
+            fillSpans(spans, originX, originY, color);
+            return;
+        }
+        if (alpha <= 0) {return;}
+
+        int firstRow = originY + spans[0];
+        int rowCount = (spans.length - 1) >> 1;
+        int fromRow = Math.max(0, clipMinY - firstRow);
+        int toRow = Math.min(rowCount, clipMaxY - firstRow);
+
+        for (int row = fromRow; row < toRow; row++) {
+            int start = Math.max(originX + spans[1 + row * 2], clipMinX);
+            int end = Math.min(originX + spans[2 + row * 2], clipMaxX);
+            if (start >= end) {continue;}
+
+            int rowOffset = (firstRow + row) * width;
+            blend(pixels, rowOffset + start, rowOffset + end, color, alpha);
+            pixelsWritten += end - start;
+        }
+    }
+
+    public void fillRect(int x, int y, int rectWidth, int rectHeight, int color) {
+        int start = Math.max(x, clipMinX);
+        int end = Math.min(x + rectWidth, clipMaxX);
+        if (start >= end) {return;}
+
+        int firstRow = Math.max(y, clipMinY);
+        int lastRow = Math.min(y + rectHeight, clipMaxY);
+
+        for (int row = firstRow; row < lastRow; row++) {
+            int rowOffset = row * width;
+            Arrays.fill(pixels, rowOffset + start, rowOffset + end, color);
+        }
+        if (lastRow > firstRow) {
+            pixelsWritten += (long) (end - start) * (lastRow - firstRow);
+        }
+    }
+
+    public void fillRect(int x, int y, int rectWidth, int rectHeight, int color, int alpha) {
+        if (alpha >= 255) {
+            fillRect(x, y, rectWidth, rectHeight, color);
+            return;
+        }
+        if (alpha <= 0) {return;}
+
+        int start = Math.max(x, clipMinX);
+        int end = Math.min(x + rectWidth, clipMaxX);
+        if (start >= end) {return;}
+
+        int firstRow = Math.max(y, clipMinY);
+        int lastRow = Math.min(y + rectHeight, clipMaxY);
+
+        for (int row = firstRow; row < lastRow; row++) {
+            int rowOffset = row * width;
+            blend(pixels, rowOffset + start, rowOffset + end, color, alpha);
+        }
+        if (lastRow > firstRow) {
+            pixelsWritten += (long) (end - start) * (lastRow - firstRow);
+        }
+    }
+
+    // draws an atlas region with its top left corner at the given pixel, stretched to the given size when that isn't
+    // the region's size. drawn at its own size without a color key or alpha, an opaque region is copied a row at a time
+    // and any other one a run at a time, see TextureAtlas. anything else goes pixel by pixel, skipping pixels of
+    // the color key (an RGB color, or -1 for none) and blending by the pixel's alpha times the given one
+    public void drawRegion(TextureAtlas.Region region, int x, int y, int drawWidth, int drawHeight, int colorKey, int alpha) {
+        if (alpha <= 0) {return;}
+
+        int start = Math.max(x, clipMinX);
+        int end = Math.min(x + drawWidth, clipMaxX);
+        int firstRow = Math.max(y, clipMinY);
+        int lastRow = Math.min(y + drawHeight, clipMaxY);
+        if (start >= end || firstRow >= lastRow) {return;}
+
+        int[] source = region.page.pixels;
+        int stride = region.page.size;
+        boolean scaled = drawWidth != region.width || drawHeight != region.height;
+        boolean copy = colorKey < 0 && alpha >= 255;
+
+        if (!scaled) {
+            int weight = alpha + (alpha >> 7);
+            for (int row = firstRow; row < lastRow; row++) {
+                int sourceRow = (region.y + row - y) * stride + region.x - x; // indexed by screen column
+                int rowOffset = row * width;
+                if (copy && region.opaque) {
+                    System.arraycopy(source, sourceRow + start, pixels, rowOffset + start, end - start);
+                }
+                else if (copy && region.runs != null) {
+                    int[] runs = region.runs;
+                    for (int run = region.runOffsets[row - y]; run < region.runOffsets[row - y + 1]; run += 2) {
+                        boolean opaque = runs[run] >= 0;
+                        int runStart = Math.max(x + (opaque ? runs[run] : ~runs[run]), start);
+                        int runEnd = Math.min(x + runs[run + 1], end);
+                        if (runStart >= runEnd) {continue;}
+
+                        if (opaque) {
+                            System.arraycopy(source, sourceRow + runStart, pixels, rowOffset + runStart, runEnd - runStart);
+                        }
+                        else {
+                            blendTexels(pixels, source, rowOffset + runStart, rowOffset + runEnd, sourceRow - rowOffset, 256);
+                        }
+                    }
+                }
+                else if (colorKey < 0) {
+                    blendTexels(pixels, source, rowOffset + start, rowOffset + end, sourceRow - rowOffset, weight);
+                }
+                else {
+                    for (int col = start; col < end; col++) {
+                        blendTexel(rowOffset + col, source[sourceRow + col], colorKey, alpha);
+                    }
+                }
+            }
+        }
+        else {
+            // nearest neighbour, stepping through the source in 16.16 fixed point
+            long stepX = ((long) region.width << 16) / drawWidth;
+            long stepY = ((long) region.height << 16) / drawHeight;
+            for (int row = firstRow; row < lastRow; row++) {
+                int sourceRow = (region.y + (int) ((row - y) * stepY >> 16)) * stride + region.x;
+                int rowOffset = row * width;
+                long sourceX = (start - x) * stepX;
+                for (int col = start; col < end; col++, sourceX += stepX) {
+                    blendTexel(rowOffset + col, source[sourceRow + (int) (sourceX >> 16)], colorKey, alpha);
+                }
+            }
+        }
+        pixelsWritten += (long) (end - start) * (lastRow - firstRow);
+    }
+
+    // blends page pixels over the framebuffer pixels from (inclusive) to (exclusive), source pixel i + sourceOffset
+    // over pixel i. weight is the sprite's alpha as 0..256. long rows are copied out so the loop indexes both the same
+    // way, which is what the JIT vectorizes, and that is four times faster. for the short rows of small sprites the
+    // copies cost more than they save
+    private void blendTexels(int[] pixels, int[] source, int from, int to, int sourceOffset, int weight) {
+        int count = to - from;
+        if (count < VECTORIZED_BLEND_MIN_PIXELS) {
+            for (int i = from; i < to; i++) {
+                pixels[i] = blendTexel(pixels[i], source[i + sourceOffset], weight);
+            }
+            return;
+        }
+        System.arraycopy(pixels, from, belowRow, 0, count);
+        System.arraycopy(source, from + sourceOffset, texelRow, 0, count);
+        blendTexelRow(belowRow, texelRow, count, weight);
+        System.arraycopy(belowRow, 0, pixels, from, count);
+    }
+
+    private static void blendTexelRow(int[] below, int[] texels, int count, int weight) {
+        for (int i = 0; i < count; i++) {
+            below[i] = blendTexel(below[i], texels[i], weight);
+        }
+    }
+
+    // no branches, like blend(), since a pixel weight of 256 copies the page pixel exactly and 0 keeps the one below
+    private static int blendTexel(int pixel, int texel, int weight) {
+        int texelAlpha = (255 - (texel >>> 24)) * weight >> 8;
+        int texelWeight = texelAlpha + (texelAlpha >> 7);
+        int inverse = 256 - texelWeight;
+        int redBlue = ((pixel & 0xff00ff) * inverse + (texel & 0xff00ff) * texelWeight) >>> 8 & 0xff00ff;
+        int green = ((pixel & 0xff00) * inverse + (texel & 0xff00) * texelWeight) >>> 8 & 0xff00;
+        return redBlue | green;
+    }
+
+    // one page pixel, a page pixel keeps 255 minus its alpha in the top byte, see TextureAtlas
+    private void blendTexel(int pixel, int texel, int colorKey, int alpha) {
+        int color = texel & 0xffffff;
+        if (color == colorKey) {return;}
+
+        int texelAlpha = (255 - (texel >>> 24)) * (alpha + (alpha >> 7)) >> 8;
+        if (texelAlpha >= 255) {
+            pixels[pixel] = color;
+        }
+        else if (texelAlpha > 0) {
+            int weight = texelAlpha + (texelAlpha >> 7);
+            int inverse = 256 - weight;
+            int below = pixels[pixel];
+            int redBlue = ((below & 0xff00ff) * inverse + (color & 0xff00ff) * weight) >>> 8 & 0xff00ff;
+            int green = ((below & 0xff00) * inverse + (color & 0xff00) * weight) >>> 8 & 0xff00;
+            pixels[pixel] = redBlue | green;
+        }
+    }
+
+    // source over blending of an RGB color onto the pixels from (inclusive) to (exclusive). red and blue are blended
+    // together in one int and green in another, 8 bits of headroom each, and the loop body is plain int arithmetic
+    // with no branches so the JIT can vectorize it
+    static void blend(int[] pixels, int from, int to, int color, int alpha) {
+        int weight = alpha + (alpha >> 7); // 0..256, so 255 maps to 256 and the shift below divides exactly
+        int inverse = 256 - weight;
+        int sourceRedBlue = (color & 0xff00ff) * weight;
+        int sourceGreen = (color & 0xff00) * weight;
+
+        for (int i = from; i < to; i++) {
+            int destination = pixels[i];
+            int redBlue = ((destination & 0xff00ff) * inverse + sourceRedBlue) >>> 8 & 0xff00ff;
+            int green = ((destination & 0xff00) * inverse + sourceGreen) >>> 8 & 0xff00;
+            pixels[i] = redBlue | green;
+        }
+    }
+
+    // blends every pixel of the source over the same pixel of the destination, used to composite whole layers
+    static void blend(int[] destination, int[] source, int from, int to, int alpha) {
+        int weight = alpha + (alpha >> 7);
+        int inverse = 256 - weight;
+
+        for (int i = from; i < to; i++) {
+            int below = destination[i];
+            int above = source[i];
+            int redBlue = ((below & 0xff00ff) * inverse + (above & 0xff00ff) * weight) >>> 8 & 0xff00ff;
+            int green = ((below & 0xff00) * inverse + (above & 0xff00) * weight) >>> 8 & 0xff00;
+            destination[i] = redBlue | green;
+        }
+    }
+
+    // writes a single pixel given as an index into the framebuffer, used by the covers() fallback
+    public void plot(int pixel, int color) {
+        if (pixel < 0 || pixel >= width * height) {return;}
+
+        int row = pixel / width;
+        int col = pixel - row * width;
+        if (row < clipMinY || row >= clipMaxY || col < clipMinX || col >= clipMaxX) {return;}
+
+        pixels[pixel] = color;
+        pixelsWritten++;
+    }
+
+    public void plot(int pixel, int color, int alpha) {
+        if (pixel < 0 || pixel >= width * height) {return;}
+
+        int row = pixel / width;
+        int col = pixel - row * width;
+        if (row < clipMinY || row >= clipMaxY || col < clipMinX || col >= clipMaxX) {return;}
+
+        blend(pixels, pixel, pixel + 1, color, alpha);
+        pixelsWritten++;
+    }
+
+    // the original per pixel path, kept for entities that only implement covers() and getBoundingBoxPixels().
+    // those work in window pixels, so the camera doesn't move them
+    public void rasterizeCoverage(Entity entity) {
+        int color = entity.getColor();
+        int alpha = entity.getAlpha();
+        if (alpha <= 0) {return;}
+
+        for (int pixel : entity.getBoundingBoxPixels()) {
+            if (entity.covers(pixel)) {
+                if (alpha >= 255) {
+                    plot(pixel, color);
+                }
+                else {
+                    plot(pixel, color, alpha);
+                }
+            }
+        }
+    }
+
+    // returns how many pixels were written since the last call and starts counting from zero again
+    public long takePixelsWritten() {
+        long written = pixelsWritten;
+        pixelsWritten = 0;
+        return written;
+    }
+
+    public SpanCache getSpanCache() {
+        return spanCache;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -1,4 +1,7 @@
-public class Rectangle implements Entity {
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Rectangle implements ManagedEntity {
 
     private double topLeftX;
     private double topLeftY;
@@ -11,8 +14,18 @@ public class Rectangle implements Entity {
     private int collisionLayer;
 
     private int color;
+    private int alpha = 255;
     private int renderLayer;
     private Screen parent;
+    private double previousTopLeftX; // where the last fixed tick started, for interpolated drawing
+    private double previousTopLeftY;
+    private double simulatedTopLeftX;
+    private double simulatedTopLeftY;
+    private EntityStore store; // when set, position and velocity live in the store instead of the fields above
+    private int storeSlot;
+    private int layerIndex;
+    private int activityIndex = -1;
+    private int poolIndex;
 
     private static final int DEFAULT_COLOR = 0xffff00;
 
@@ -42,27 +55,31 @@ public class Rectangle implements Entity {
     }
 
     public void updatePosition() {
+        if (store != null) {
+            store.integrate(storeSlot, storeSlot + 1, parent.getDeltaTimeMs() / 1000.0, parent.getWorldWidth(), parent.getWorldHeight());
+            return;
+        }
         double deltaTimeSec = parent.getDeltaTimeMs() / 1000.0;
 
         topLeftX += dxPxPerFrame * deltaTimeSec;
         topLeftY += dyPxPerFrame * deltaTimeSec;
 
         if (collidesWithScreenBorders) {
-            checkScreenBorderCollisions(parent.getWindowWidth(), parent.getWindowHeight());
+            checkScreenBorderCollisions(parent.getWorldWidth(), parent.getWorldHeight());
         }
     }
 
-    private void checkScreenBorderCollisions(int windowWidth, int windowHeight) {
+    private void checkScreenBorderCollisions(int worldWidth, int worldHeight) {
         int topLeftXInt = (int) topLeftX;
         int topLeftYInt = (int) topLeftY;
 
-        if (topLeftXInt + width > windowWidth) {
+        if (topLeftXInt + width > worldWidth) {
             dxPxPerFrame = -Math.abs(dxPxPerFrame);
         }
         else if (topLeftXInt < 0) {
             dxPxPerFrame = Math.abs(dxPxPerFrame);
         }
-        if (topLeftYInt + height > windowHeight) {
+        if (topLeftYInt + height > worldHeight) {
             dyPxPerFrame = -Math.abs(dyPxPerFrame);
         }
         else if (topLeftYInt < 0) {
@@ -71,48 +88,42 @@ public class Rectangle implements Entity {
     }
 
     public boolean collidesWith(Entity other) {
-        if (other instanceof Rectangle) {
-            Rectangle otherRectangle = (Rectangle) other;
-
-            return  getTopLeftX() < otherRectangle.getTopLeftX() + otherRectangle.width &&
-                    getTopLeftX() + width > otherRectangle.getTopLeftX() &&
-                    getTopLeftY() < otherRectangle.getTopLeftY() + otherRectangle.height &&
-                    getTopLeftY() + height > otherRectangle.getTopLeftY();
-        }
-        else if (other instanceof Circle) {
-            return ((Circle) other).collidesWith(this);
-        }
-        else {
-            throw new IllegalArgumentException("the rectangle class doesn't know how to check for a collision with some type of entity.");
-        }
+        return CollisionDispatch.findContact(this, other, null);
     }
 
     public void resolveCollision(Entity other) {
-        if (other instanceof Rectangle) {
-            Rectangle otherRectangle = (Rectangle) other;
-            // TODO implement
-
-            
-        }
-        else if (other instanceof Circle) {
-            ((Circle) other).resolveCollision(this);
+        if (other instanceof ManagedEntity) {
+            Narrowphase.resolve(this, (ManagedEntity) other, parent);
         }
         else {
-            throw new IllegalArgumentException("the rectangle class doesn't know how to resolve a collision with some type of entity.");
+            CollisionDispatch.resolve(this, other); // a shape registered from outside, with its own response
         }
     }
 
+    public int getShapeKind() {
+        return ShapeKind.RECTANGLE;
+    }
+
     public boolean covers(int pixel) {
         return true;
     }
 
+    public void rasterize(Rasterizer rasterizer) {
+        int screenX = rasterizer.toScreenX(getTopLeftX());
+        int screenY = rasterizer.toScreenY(getTopLeftY());
+        int screenWidth = Math.max(1, rasterizer.toScreenX(getTopLeftX() + width) - screenX);
+        int screenHeight = Math.max(1, rasterizer.toScreenY(getTopLeftY() + height) - screenY);
+        rasterizer.fillRect(screenX, screenY, screenWidth, screenHeight, color, alpha);
+    }
+
     public int[] getBoundingBoxPixels() {
         int[] boundingBoxPixels = new int[width * height];
+        Arrays.fill(boundingBoxPixels, -1); // pixels outside the window stay -1, which plot() skips
 
         int windowWidth = parent.getWindowWidth();
         int windowHeight = parent.getWindowHeight();
-        int topLeftXInt = (int) topLeftX;
-        int topLeftYInt = (int) topLeftY;
+        int topLeftXInt = getTopLeftX();
+        int topLeftYInt = getTopLeftY();
 
         for (int row = topLeftXInt; row < topLeftXInt + width; row++) {
             for (int col = topLeftYInt; col < topLeftYInt + height; col++) {
@@ -128,6 +139,22 @@ public class Rectangle implements Entity {
         return boundingBoxPixels;
     }
 
+    public int getMinX() {
+        return getTopLeftX();
+    }
+
+    public int getMinY() {
+        return getTopLeftY();
+    }
+
+    public int getMaxX() {
+        return getTopLeftX() + width;
+    }
+
+    public int getMaxY() {
+        return getTopLeftY() + height;
+    }
+
     public int getRenderLayer() {
         return renderLayer;
     }
@@ -137,11 +164,19 @@ public class Rectangle implements Entity {
     }
 
     public int getTopLeftX() {
-        return (int) topLeftX;
+        return (int) getExactTopLeftX();
     }
 
     public int getTopLeftY() {
-        return (int) topLeftY;
+        return (int) getExactTopLeftY();
+    }
+
+    double getExactTopLeftX() {
+        return store == null ? topLeftX : store.positionX[storeSlot];
+    }
+
+    double getExactTopLeftY() {
+        return store == null ? topLeftY : store.positionY[storeSlot];
     }
 
     public int getWidth() {
@@ -152,12 +187,35 @@ public class Rectangle implements Entity {
         return height;
     }
 
+    public double getExactX() {
+        return getExactTopLeftX();
+    }
+
+    public double getExactY() {
+        return getExactTopLeftY();
+    }
+
+    public void translate(double byX, double byY) {
+        if (Math.abs(byX) + Math.abs(byY) >= ActivityTracker.RESTING_PUSH_PX) {wake();}
+        if (store != null) {
+            store.positionX[storeSlot] += byX;
+            store.positionY[storeSlot] += byY;
+            return;
+        }
+        topLeftX += byX;
+        topLeftY += byY;
+    }
+
+    public double getInverseMass() {
+        return 1.0 / (width * height);
+    }
+
     public int getDxPxPerFrame() {
-        return dxPxPerFrame;
+        return store == null ? dxPxPerFrame : store.dxPxPerFrame[storeSlot];
     }
 
     public int getDyPxPerFrame() {
-        return dyPxPerFrame;
+        return store == null ? dyPxPerFrame : store.dyPxPerFrame[storeSlot];
     }
 
     public boolean collidesWithEntities() {
@@ -172,36 +230,210 @@ public class Rectangle implements Entity {
         return color;
     }
 
+    public int getAlpha() {
+        return alpha;
+    }
+
     public void setParent(Screen parent) {
         this.parent = parent;
     }
 
     public void setTopLeftX(int topLeftX) {
+        wake();
         this.topLeftX = topLeftX;
+        previousTopLeftX = topLeftX;
+        if (store != null) {store.positionX[storeSlot] = store.previousX[storeSlot] = topLeftX;}
     }
 
     public void setTopLeftY(int topLeftY) {
+        wake();
         this.topLeftY = topLeftY;
+        previousTopLeftY = topLeftY;
+        if (store != null) {store.positionY[storeSlot] = store.previousY[storeSlot] = topLeftY;}
     }
 
     public void setDxPxPerFrame(int dx) {
+        wake();
         this.dxPxPerFrame = dx;
+        if (store != null) {store.dxPxPerFrame[storeSlot] = dx;}
     }
 
     public void setDyPxPerFrame(int dy) {
+        wake();
         this.dyPxPerFrame = dy;
+        if (store != null) {store.dyPxPerFrame[storeSlot] = dy;}
     }
 
     public void setCollidesWithScreenBorders(boolean collidesWithScreenBorders) {
+        wake();
         this.collidesWithScreenBorders = collidesWithScreenBorders;
+        if (store != null) {store.collidesWithScreenBorders[storeSlot] = collidesWithScreenBorders;}
     }
 
     public void setCollidesWithEntities(boolean collidesWithEntities) {
+        wake();
         this.collidesWithEntities = collidesWithEntities;
+        if (store != null) {store.collidesWithEntities[storeSlot] = collidesWithEntities;}
     }
     
     public void setColor(int color) {
         this.color = color;
+        if (store != null) {store.color[storeSlot] = color;}
+    }
+
+    // 0 is invisible and 255 opaque
+    public void setAlpha(int alpha) {
+        if (alpha < 0 || alpha > 255) {
+            throw new IllegalArgumentException("alpha must be between 0 and 255.");
+        }
+        this.alpha = alpha;
+    }
+
+    // writes the rectangle for a ScreenSnapshot, see readSnapshot()
+    public void writeSnapshot(ByteBuffer buffer) {
+        buffer.putDouble(getExactTopLeftX()).putDouble(getExactTopLeftY());
+        buffer.putDouble(store == null ? previousTopLeftX : store.previousX[storeSlot]);
+        buffer.putDouble(store == null ? previousTopLeftY : store.previousY[storeSlot]);
+        buffer.putInt(getDxPxPerFrame()).putInt(getDyPxPerFrame()).putInt(width).putInt(height);
+        buffer.putInt(color).put((byte) alpha).putInt(renderLayer).putInt(collisionLayer);
+        buffer.put((byte) ((collidesWithScreenBorders ? 1 : 0) | (collidesWithEntities ? 2 : 0)));
+    }
+
+    // reads back what writeSnapshot() wrote, the shape kind before it was already read
+    static Rectangle readSnapshot(ByteBuffer buffer) {
+        double topLeftX = buffer.getDouble();
+        double topLeftY = buffer.getDouble();
+        double previousTopLeftX = buffer.getDouble();
+        double previousTopLeftY = buffer.getDouble();
+        int dx = buffer.getInt();
+        int dy = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int color = buffer.getInt();
+        int alpha = buffer.get() & 0xff;
+        int renderLayer = buffer.getInt();
+
+        Rectangle rectangle = new Rectangle(0, 0, width, height, dx, dy, color, renderLayer);
+        rectangle.topLeftX = topLeftX;
+        rectangle.topLeftY = topLeftY;
+        rectangle.previousTopLeftX = previousTopLeftX;
+        rectangle.previousTopLeftY = previousTopLeftY;
+        rectangle.alpha = alpha;
+        rectangle.collisionLayer = buffer.getInt();
+        byte flags = buffer.get();
+        rectangle.collidesWithScreenBorders = (flags & 1) != 0;
+        rectangle.collidesWithEntities = (flags & 2) != 0;
+        return rectangle;
+    }
+
+    public void attachToStore(EntityStore store) {
+        if (this.store != null) {
+            detachFromStore();
+        }
+        storeSlot = store.allocate(this);
+        store.positionX[storeSlot] = topLeftX;
+        store.positionY[storeSlot] = topLeftY;
+        store.previousX[storeSlot] = previousTopLeftX;
+        store.previousY[storeSlot] = previousTopLeftY;
+        store.dxPxPerFrame[storeSlot] = dxPxPerFrame;
+        store.dyPxPerFrame[storeSlot] = dyPxPerFrame;
+        store.originX[storeSlot] = store.originY[storeSlot] = 0;
+        store.sizeX[storeSlot] = width;
+        store.sizeY[storeSlot] = height;
+        store.color[storeSlot] = color;
+        store.renderLayer[storeSlot] = renderLayer;
+        store.collisionLayer[storeSlot] = collisionLayer;
+        store.collidesWithScreenBorders[storeSlot] = collidesWithScreenBorders;
+        store.collidesWithEntities[storeSlot] = collidesWithEntities;
+        this.store = store;
+    }
+
+    public void detachFromStore() {
+        if (store == null) {return;}
+
+        topLeftX = store.positionX[storeSlot];
+        topLeftY = store.positionY[storeSlot];
+        previousTopLeftX = store.previousX[storeSlot];
+        previousTopLeftY = store.previousY[storeSlot];
+        dxPxPerFrame = store.dxPxPerFrame[storeSlot];
+        dyPxPerFrame = store.dyPxPerFrame[storeSlot];
+        store.free(storeSlot);
+        store = null;
+    }
+
+    public void setStoreSlot(int slot) {
+        storeSlot = slot;
+    }
+
+    public int getStoreSlot() {
+        return storeSlot;
+    }
+
+    public EntityStore getStore() {
+        return store;
+    }
+
+    public void setLayerIndex(int index) {
+        layerIndex = index;
+    }
+
+    public int getLayerIndex() {
+        return layerIndex;
+    }
+
+    public void setActivityIndex(int index) {
+        activityIndex = index;
+    }
+
+    public int getActivityIndex() {
+        return activityIndex;
+    }
+
+    public void setPoolIndex(int index) {
+        poolIndex = index;
+    }
+
+    public int getPoolIndex() {
+        return poolIndex;
+    }
+
+    // a sleeping entity has to take part in the tick again once its motion or collisions change
+    private void wake() {
+        if (parent != null) {parent.wake(this);}
+    }
+
+    public void storePreviousPosition() {
+        if (store != null) {
+            store.previousX[storeSlot] = store.positionX[storeSlot];
+            store.previousY[storeSlot] = store.positionY[storeSlot];
+            return;
+        }
+        previousTopLeftX = topLeftX;
+        previousTopLeftY = topLeftY;
+    }
+
+    public void interpolatePosition(double alpha) {
+        if (store != null) {
+            simulatedTopLeftX = store.positionX[storeSlot];
+            simulatedTopLeftY = store.positionY[storeSlot];
+            store.positionX[storeSlot] = store.previousX[storeSlot] + (simulatedTopLeftX - store.previousX[storeSlot]) * alpha;
+            store.positionY[storeSlot] = store.previousY[storeSlot] + (simulatedTopLeftY - store.previousY[storeSlot]) * alpha;
+            return;
+        }
+        simulatedTopLeftX = topLeftX;
+        simulatedTopLeftY = topLeftY;
+        topLeftX = previousTopLeftX + (simulatedTopLeftX - previousTopLeftX) * alpha;
+        topLeftY = previousTopLeftY + (simulatedTopLeftY - previousTopLeftY) * alpha;
+    }
+
+    public void restorePosition() {
+        if (store != null) {
+            store.positionX[storeSlot] = simulatedTopLeftX;
+            store.positionY[storeSlot] = simulatedTopLeftY;
+            return;
+        }
+        topLeftX = simulatedTopLeftX;
+        topLeftY = simulatedTopLeftY;
     }
 
     public boolean equals(Object other) {
@@ -215,7 +447,7 @@ public class Rectangle implements Entity {
 
     public String toString() {
         return String.format("Rectangle with width: %d, height: %d, top left x: %d, top left y: %d" +
-                "dx: %d, dy: %d, and color: 0x%06x", width, height, (int) topLeftX, (int) topLeftY, dxPxPerFrame, dyPxPerFrame, color);
+                "dx: %d, dy: %d, and color: 0x%06x", width, height, getTopLeftX(), getTopLeftY(), getDxPxPerFrame(), getDyPxPerFrame(), color);
     }
 
     public int compareTo(Entity other) {
@@ -0,0 +1,480 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import javax.imageio.ImageIO;
+
+// checks that every way of drawing a frame gives the same pixels, headless with
+//     java -Djava.awt.headless=true RegressionHarness [check|record] [golden directory]
+// every scene is built from Random seed 0 the way Main builds its scene and stepped with a fixed delta. each drawing
+// path gets its own screen, and every frame is hashed and compared against the original covers() based drawing and
+// against the golden hashes recorded earlier. a mismatch writes a diff image next to the golden files and exits with 1
+public class RegressionHarness {
+
+    private static final int FRAMES = 120;
+    private static final double DELTA_TIME_MS = 16;
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int BACKGROUND_COLOR = 0x000033;
+    private static final int STILL_COLOR = 0x40ff90;
+
+    private static class Scene {
+        final String name;
+        final Consumer<Screen> setup; // applied to every path's screen after the entities were added
+        final boolean comparedToCovers; // covers() works in window pixels, so scenes with a moved camera skip it
+        final boolean collidesWithEntities;
+        final ObjIntConsumer<Screen> beforeFrame; // changes the scene before the frame with the given number is stepped
+
+        Scene(String name, boolean collidesWithEntities, boolean comparedToCovers, Consumer<Screen> setup) {
+            this(name, collidesWithEntities, comparedToCovers, setup, (screen, frame) -> {});
+        }
+
+        Scene(String name, boolean collidesWithEntities, boolean comparedToCovers, Consumer<Screen> setup,
+                ObjIntConsumer<Screen> beforeFrame) {
+            this.name = name;
+            this.collidesWithEntities = collidesWithEntities;
+            this.comparedToCovers = comparedToCovers;
+            this.setup = setup;
+            this.beforeFrame = beforeFrame;
+        }
+    }
+
+    private static class DrawPath {
+        final String name;
+        final Consumer<Screen> setup;
+
+        DrawPath(String name, Consumer<Screen> setup) {
+            this.name = name;
+            this.setup = setup;
+        }
+    }
+
+    private static final Scene[] SCENES = {
+        new Scene("main", false, true, screen -> {}),
+        new Scene("collisions", true, true, screen -> {}),
+        new Scene("translucent", false, true, screen -> {
+            for (Entity entity : screen.getEntities()) {
+                if (entity.getColor() % 3 != 0) {continue;}
+                if (entity instanceof Circle) {((Circle) entity).setAlpha(128);}
+                else {((Rectangle) entity).setAlpha(96);}
+            }
+        }),
+        new Scene("sprites", false, false, RegressionHarness::addSprites),
+        new Scene("customShapes", true, true, RegressionHarness::addBumpers),
+        new Scene("restyled", false, false, RegressionHarness::addStillShapes, RegressionHarness::restyle),
+        new Scene("camera", false, false, screen -> {
+            screen.setWorldSize(1600, 1200);
+            screen.getCamera().setZoom(1.5);
+            screen.getCamera().setOffset(120.5, 80.25);
+        }),
+    };
+
+    private static final DrawPath[] PATHS = {
+        new DrawPath("spans", screen -> {}),
+        new DrawPath("spans.uncached", screen -> screen.setSpanCacheBudgetBytes(0)),
+        new DrawPath("parallel", screen -> screen.setParallelism(4)),
+        new DrawPath("dirtyRectangles", screen -> screen.setDirtyRectanglesEnabled(true)),
+        new DrawPath("culling", screen -> screen.setViewportCullingEnabled(true)),
+        new DrawPath("entityStore", screen -> screen.setEntityStoreEnabled(true)),
+    };
+
+    public static void main(String[] args) throws IOException {
+        boolean record = args.length > 0 && args[0].equals("record");
+        Path goldenDirectory = Paths.get(args.length > 1 ? args[1] : "golden");
+        Files.createDirectories(goldenDirectory);
+
+        boolean passed = true;
+        for (Scene scene : SCENES) {
+            passed &= run(scene, goldenDirectory, record);
+        }
+        System.out.println(passed ? "all frames match" : "frames differ, see the diff images in " + goldenDirectory);
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(Scene scene, Path goldenDirectory, boolean record) throws IOException {
+        Path goldenFile = goldenDirectory.resolve(scene.name + ".txt");
+        long[] golden = record || !Files.exists(goldenFile) ? null : readHashes(goldenFile);
+        if (!record && golden == null) {
+            System.out.printf("%-12s no golden hashes in %s, run with record first%n", scene.name, goldenFile);
+        }
+
+        HeadlessScreen[] screens = new HeadlessScreen[PATHS.length];
+        for (int path = 0; path < PATHS.length; path++) {
+            screens[path] = createScene(scene);
+            PATHS[path].setup.accept(screens[path]);
+            screens[path].setMetricsEnabled(true);
+        }
+
+        int[] reference = new int[WIDTH * HEIGHT];
+        Rasterizer referenceRasterizer = new Rasterizer(reference, WIDTH, HEIGHT);
+        long[] referenceNs = new long[FRAMES];
+        long[] hashes = new long[FRAMES];
+        boolean[] failed = new boolean[PATHS.length];
+        boolean referenceFailed = false;
+        boolean goldenFailed = false;
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (HeadlessScreen screen : screens) {
+                scene.beforeFrame.accept(screen, frame);
+                screen.step(DELTA_TIME_MS);
+            }
+            int[] expected = screens[0].getPixels();
+            hashes[frame] = Replay.hashFrame(screens[0]);
+
+            if (scene.comparedToCovers) {
+                long startNs = System.nanoTime();
+                Arrays.fill(reference, BACKGROUND_COLOR);
+                for (Entity entity : screens[0].getEntities()) {
+                    referenceRasterizer.rasterizeCoverage(entity);
+                }
+                referenceNs[frame] = System.nanoTime() - startNs;
+
+                if (!referenceFailed && !Arrays.equals(reference, expected)) {
+                    referenceFailed = true;
+                    writeDiff(goldenDirectory, scene.name + "." + PATHS[0].name + ".vs.covers", frame, reference, expected);
+                }
+            }
+            for (int path = 1; path < PATHS.length; path++) {
+                if (failed[path] || Arrays.equals(screens[path].getPixels(), expected)) {continue;}
+                failed[path] = true;
+                writeDiff(goldenDirectory, scene.name + "." + PATHS[path].name, frame, expected, screens[path].getPixels());
+            }
+            if (golden != null && !goldenFailed && (frame >= golden.length || golden[frame] != hashes[frame])) {
+                goldenFailed = true;
+                writeImage(goldenDirectory.resolve(scene.name + ".golden.frame" + frame + ".png"), expected, null);
+                System.out.printf("%-12s frame %d doesn't match the golden hash%n", scene.name, frame);
+            }
+        }
+
+        if (record) {
+            writeHashes(goldenFile, hashes);
+        }
+        report(scene, screens, failed, referenceFailed, referenceNs);
+        boolean passed = !referenceFailed && !goldenFailed;
+        for (boolean pathFailed : failed) {passed &= !pathFailed;}
+        return passed;
+    }
+
+    // median time to draw a frame on every path, and how much faster than covers() it is
+    private static void report(Scene scene, HeadlessScreen[] screens, boolean[] failed, boolean referenceFailed, long[] referenceNs) {
+        double referenceMs = 0;
+        if (scene.comparedToCovers) {
+            long[] sorted = referenceNs.clone();
+            Arrays.sort(sorted);
+            referenceMs = sorted[sorted.length / 2] / 1e6;
+            System.out.printf("%-12s %-16s %8.3f ms %s%n", scene.name, "covers", referenceMs, referenceFailed ? "differs" : "");
+        }
+        for (int path = 0; path < PATHS.length; path++) {
+            MetricsSnapshot metrics = screens[path].getMetricsSnapshot();
+            double drawMs = (metrics.getP50Ns(FrameMetrics.Phase.CLEAR) + metrics.getP50Ns(FrameMetrics.Phase.RASTERIZE)) / 1e6;
+            String speedup = scene.comparedToCovers ? String.format("%7.1fx", referenceMs / drawMs) : "";
+            System.out.printf("%-12s %-16s %8.3f ms %s %s%n", scene.name, PATHS[path].name, drawMs, speedup,
+                    failed[path] ? "differs" : "");
+        }
+    }
+
+    // the scene from Main, scaled down to what a test can step through quickly
+    private static HeadlessScreen createScene(Scene scene) {
+        HeadlessScreen screen = new HeadlessScreen(BACKGROUND_COLOR, WIDTH, HEIGHT);
+        Random rand = new Random();
+        rand.setSeed(0);
+
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Rectangle toAdd = new Rectangle(rand.nextInt(20, 200), rand.nextInt(20, 200),
+                    rand.nextInt(20, 40), rand.nextInt(20, 40),
+                    rand.nextInt(600), rand.nextInt(600), rand.nextInt(0xffffff), 3);
+            toAdd.setCollidesWithScreenBorders(true);
+            toAdd.setCollidesWithEntities(scene.collidesWithEntities);
+            entities.add(toAdd);
+        }
+        for (int i = 0; i < 1500; i++) {
+            Circle toAdd = new Circle(rand.nextInt(5, 15), rand.nextInt(20, 400), rand.nextInt(20, 400),
+                    rand.nextInt(600), rand.nextInt(600), rand.nextInt(0xffffff), 1);
+            toAdd.setCollidesWithScreenBorders(true);
+            toAdd.setCollidesWithEntities(scene.collidesWithEntities);
+            entities.add(toAdd);
+        }
+        Circle toAdd = new Circle(50, 100, 100, 100, 100, 0x000000, 5);
+        toAdd.setCollidesWithScreenBorders(true);
+        entities.add(toAdd);
+
+        screen.addEntities(entities);
+        screen.step(0); // applies the adds, so the setup sees the entities
+        scene.setup.accept(screen);
+        return screen;
+    }
+
+    // opaque, cut out and soft edged images moving over the main scene, with a color key on some of them.
+    // covers() doesn't know about images, so the scene is only compared between paths and against the golden hashes
+    private static void addSprites(Screen screen) {
+        TextureAtlas atlas = new TextureAtlas(256);
+        TextureAtlas.Region[] regions = new TextureAtlas.Region[24];
+        for (int image = 0; image < regions.length; image++) {
+            int size = 8 + image * 3;
+            int[] argb = new int[size * size];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int distance = Math.abs(2 * x - size + 1) + Math.abs(2 * y - size + 1);
+                    int alpha = image % 3 == 0 ? 255 : image % 3 == 1 ? (distance < size ? 255 : 0)
+                            : Math.max(0, 255 - distance * 255 / size);
+                    int color = (x * 255 / size) << 16 | (y * 255 / size) << 8 | image * 10;
+                    argb[y * size + x] = alpha << 24 | ((x / 4 + y / 4) % 5 == 0 ? 0xff00ff : color);
+                }
+            }
+            regions[image] = atlas.add(argb, size, size);
+        }
+
+        Random rand = new Random(1);
+        List<Entity> sprites = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Sprite sprite = new Sprite(regions[rand.nextInt(regions.length)], rand.nextInt(600), rand.nextInt(500),
+                    rand.nextInt(-200, 200), rand.nextInt(-200, 200), rand.nextInt(4));
+            sprite.setCollidesWithScreenBorders(true);
+            if (i % 4 == 0) {sprite.setColorKey(0xff00ff);}
+            if (i % 7 == 0) {sprite.setAlpha(160);}
+            sprites.add(sprite);
+        }
+        screen.addEntities(sprites);
+    }
+
+    // shapes that never move, so only a change to how they look makes dirty rectangles redraw them. the scene is
+    // thinned out to a few moving entities, so dirty rectangles only redraw parts of the frame
+    private static void addStillShapes(Screen screen) {
+        List<Entity> removing = new ArrayList<>();
+        List<Entity> entities = screen.getEntities();
+        for (int i = 0; i < entities.size(); i++) {
+            if (i % 40 != 0) {removing.add(entities.get(i));}
+        }
+        screen.removeEntities(removing);
+        screen.addEntity(new Circle(40, 650, 450, 0, 0, STILL_COLOR, 1));
+        screen.addEntity(new Rectangle(560, 60, 120, 80, 0, 0, STILL_COLOR, 3));
+
+        int[] argb = new int[48 * 48];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xff000000 | ((i / 48 / 6 + i % 48 / 6) % 2 == 0 ? 0xff00ff : STILL_COLOR);
+        }
+        screen.addEntity(new Sprite(new TextureAtlas(64).add(argb, 48, 48), 120, 480, 0, 0, 2));
+    }
+
+    // fades the circles' layer out and back in, then makes the still shapes translucent and cuts the checks out of the
+    // sprite. layer opacity and images are left out of covers(), so the scene is only compared between paths and
+    // against the golden hashes
+    private static void restyle(Screen screen, int frame) {
+        if (frame == 20) {screen.setLayerOpacity(1, 128);}
+        if (frame == 40) {screen.setLayerOpacity(3, 200);}
+        if (frame == 60) {screen.setLayerOpacity(1, 255);}
+        if (frame == 70) {screen.setLayerOpacity(3, 255);}
+        if (frame != 90 && frame != 100 && frame != 110) {return;}
+
+        for (Entity entity : screen.getEntities()) {
+            if (entity instanceof Sprite) {
+                if (frame == 100) {((Sprite) entity).setAlpha(128);}
+                if (frame == 110) {((Sprite) entity).setColorKey(0xff00ff);}
+                continue;
+            }
+            if (entity.getColor() != STILL_COLOR || frame == 110) {continue;}
+            if (entity instanceof Circle) {((Circle) entity).setAlpha(frame == 90 ? 96 : 255);}
+            else {((Rectangle) entity).setAlpha(frame == 90 ? 160 : 255);}
+        }
+    }
+
+    // a few bumpers among the colliding circles, the one drawn below them resolves its collisions itself and the
+    // circles resolve theirs with the ones drawn above. the circles move to the bumpers' collision layer, away from the
+    // rectangles, since there is no test between rectangles and bumpers
+    private static void addBumpers(Screen screen) {
+        for (Entity entity : screen.getEntities()) {
+            if (entity instanceof Circle) {((Circle) entity).setCollisionLayer(Bumper.COLLISION_LAYER);}
+        }
+        screen.addEntity(new Bumper(200, 200, 40, 0));
+        screen.addEntity(new Bumper(560, 180, 30, 2));
+        screen.addEntity(new Bumper(420, 430, 50, 2));
+    }
+
+    // a round bumper that isn't one of the built in shapes. it gets a shape kind of its own, with a collision test
+    // and a response against circles registered for it, and circles bounce off it while it stays where it is
+    private static class Bumper implements Entity {
+
+        static final int KIND = ShapeKind.register();
+        static final int COLLISION_LAYER = 1;
+
+        static {
+            CollisionDispatch.register(KIND, ShapeKind.CIRCLE,
+                    (first, second, contact) -> ((Bumper) first).touches((Circle) second, contact));
+            CollisionDispatch.registerResponse(KIND, ShapeKind.CIRCLE,
+                    (first, second, contact) -> ((Bumper) first).bounce((Circle) second, contact));
+        }
+
+        private final int centerX;
+        private final int centerY;
+        private final int radius;
+        private final int renderLayer;
+        private Screen parent;
+
+        Bumper(int centerX, int centerY, int radius, int renderLayer) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.radius = radius;
+            this.renderLayer = renderLayer;
+        }
+
+        boolean touches(Circle ball, ContactManifold contact) {
+            int distanceX = ball.getPositionX() - centerX;
+            int distanceY = ball.getPositionY() - centerY;
+            int reach = radius + ball.getRadius();
+            if (distanceX * distanceX + distanceY * distanceY >= reach * reach) {return false;}
+
+            if (contact != null) {
+                double distance = Math.sqrt(distanceX * distanceX + distanceY * distanceY);
+                if (distance == 0) {
+                    contact.set(1, 0, reach);
+                }
+                else {
+                    contact.set(distanceX / distance, distanceY / distance, reach - distance);
+                }
+            }
+            return true;
+        }
+
+        // mirrors the ball's velocity along the normal when it is moving in, and moves it out of the bumper
+        void bounce(Circle ball, ContactManifold contact) {
+            double normalX = contact.getNormalX();
+            double normalY = contact.getNormalY();
+            double approachSpeed = ball.getDxPxPerFrame() * normalX + ball.getDyPxPerFrame() * normalY;
+            if (approachSpeed < 0) {
+                ball.setDxPxPerFrame((int) Math.round(ball.getDxPxPerFrame() - 2 * approachSpeed * normalX));
+                ball.setDyPxPerFrame((int) Math.round(ball.getDyPxPerFrame() - 2 * approachSpeed * normalY));
+            }
+            ball.translate(normalX * contact.getDepth(), normalY * contact.getDepth());
+        }
+
+        public int getColor() {
+            return 0xffcc00;
+        }
+
+        public void updatePosition() {}
+
+        public boolean covers(int pixel) {
+            int distanceX = pixel % parent.getWindowWidth() - centerX;
+            int distanceY = pixel / parent.getWindowWidth() - centerY;
+            return distanceX * distanceX + distanceY * distanceY < radius * radius;
+        }
+
+        // bumpers are placed inside the window
+        public int[] getBoundingBoxPixels() {
+            int[] pixels = new int[radius * radius * 4];
+            for (int y = 0; y < radius * 2; y++) {
+                for (int x = 0; x < radius * 2; x++) {
+                    pixels[y * radius * 2 + x] = (centerY - radius + y) * parent.getWindowWidth() + centerX - radius + x;
+                }
+            }
+            return pixels;
+        }
+
+        public void setParent(Screen parent) {
+            this.parent = parent;
+        }
+
+        public int getRenderLayer() {
+            return renderLayer;
+        }
+
+        public int getCollisionLayer() {
+            return COLLISION_LAYER;
+        }
+
+        public boolean collidesWithEntities() {
+            return true;
+        }
+
+        public boolean collidesWith(Entity other) {
+            return CollisionDispatch.findContact(this, other, null);
+        }
+
+        public void resolveCollision(Entity other) {
+            CollisionDispatch.resolve(this, other);
+        }
+
+        public int getMinX() {
+            return centerX - radius;
+        }
+
+        public int getMinY() {
+            return centerY - radius;
+        }
+
+        public int getMaxX() {
+            return centerX + radius;
+        }
+
+        public int getMaxY() {
+            return centerY + radius;
+        }
+
+        public int getShapeKind() {
+            return KIND;
+        }
+
+        public int compareTo(Entity other) {
+            return renderLayer - other.getRenderLayer();
+        }
+    }
+
+    // the expected frame dimmed to grey with every differing pixel in red
+    private static void writeDiff(Path directory, String name, int frame, int[] expected, int[] actual) throws IOException {
+        int differing = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            if (expected[i] != actual[i]) {differing++;}
+        }
+        Path file = directory.resolve(name + ".frame" + frame + ".diff.png");
+        writeImage(file, expected, actual);
+        System.out.printf("%-12s frame %d: %d pixels differ, written to %s%n", name, frame, differing, file);
+    }
+
+    private static void writeImage(Path file, int[] pixels, int[] compareTo) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int[] out = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < out.length; i++) {
+            if (compareTo == null) {
+                out[i] = pixels[i];
+            }
+            else if (pixels[i] != compareTo[i]) {
+                out[i] = 0xff0000;
+            }
+            else {
+                int grey = (((pixels[i] >> 16) & 0xff) + ((pixels[i] >> 8) & 0xff) + (pixels[i] & 0xff)) / 6;
+                out[i] = grey << 16 | grey << 8 | grey;
+            }
+        }
+        image.setRGB(0, 0, WIDTH, HEIGHT, out, 0, WIDTH);
+        ImageIO.write(image, "png", new File(file.toString()));
+    }
+
+    private static long[] readHashes(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        long[] hashes = new long[lines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = Long.parseUnsignedLong(lines.get(i).trim(), 16);
+        }
+        return hashes;
+    }
+
+    private static void writeHashes(Path file, long[] hashes) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (long hash : hashes) {
+            text.append(String.format("%016x", hash)).append('\n');
+        }
+        Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+// the screen's entities bucketed by render layer, layers in ascending order. adding never has to sort,
+// removing swaps the last entity of the layer into the gap, and flattening into the draw order is one array copy per layer.
+// the order within a layer is up to the layers, so sprites are moved behind the other entities and grouped by atlas
+// page the next time the layer is flattened after sprites were added or swapped around. that way drawing a layer reads
+// one page after the other instead of jumping between them
+final class RenderLayers {
+
+    private static final Comparator<Entity> BY_PAGE = Comparator.comparingInt(
+            entity -> entity instanceof Sprite ? ((Sprite) entity).getPageId() : -1);
+
+    private int[] layers = new int[4];
+    private Entity[][] buckets = new Entity[4][];
+    private int[] bucketSizes = new int[4];
+    private boolean[] ungrouped = new boolean[4]; // the layer's sprites may be out of page order
+    private int layerCount;
+    private int size;
+
+    void add(Entity entity) {
+        int bucket = findOrAddBucket(entity.getRenderLayer());
+        if (bucketSizes[bucket] == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+        }
+        setIndex(entity, bucketSizes[bucket]);
+        buckets[bucket][bucketSizes[bucket]++] = entity;
+        ungrouped[bucket] |= entity instanceof Sprite;
+        size++;
+    }
+
+    // the layer is passed in since the entity may have moved to another one since it was added
+    boolean remove(Entity entity, int renderLayer) {
+        int bucket = Arrays.binarySearch(layers, 0, layerCount, renderLayer);
+        if (bucket < 0) {return false;}
+
+        Entity[] bucketEntities = buckets[bucket];
+        int index = entity instanceof ManagedEntity ? ((ManagedEntity) entity).getLayerIndex() : -1;
+        if (index < 0 || index >= bucketSizes[bucket] || bucketEntities[index] != entity) {
+            index = bucketSizes[bucket] - 1;
+            while (index >= 0 && bucketEntities[index] != entity) {index--;}
+            if (index < 0) {return false;}
+        }
+
+        int last = --bucketSizes[bucket];
+        bucketEntities[index] = bucketEntities[last];
+        setIndex(bucketEntities[index], index);
+        ungrouped[bucket] |= index != last && bucketEntities[index] instanceof Sprite;
+        bucketEntities[last] = null;
+        size--;
+        return true;
+    }
+
+    // one pass over every layer, so removing thousands of entities at once doesn't search for each of them
+    int removeAll(Set<Entity> toRemove) {
+        int removed = 0;
+        for (int bucket = 0; bucket < layerCount; bucket++) {
+            Entity[] bucketEntities = buckets[bucket];
+            int kept = 0;
+            for (int i = 0; i < bucketSizes[bucket]; i++) {
+                if (!toRemove.contains(bucketEntities[i])) {
+                    setIndex(bucketEntities[i], kept);
+                    bucketEntities[kept++] = bucketEntities[i];
+                }
+            }
+            Arrays.fill(bucketEntities, kept, bucketSizes[bucket], null);
+            removed += bucketSizes[bucket] - kept;
+            bucketSizes[bucket] = kept;
+        }
+        size -= removed;
+        return removed;
+    }
+
+    // copies every entity in draw order into the given array, or a bigger one if it doesn't fit
+    Entity[] flatten(Entity[] into) {
+        if (into.length < size) {
+            into = new Entity[Math.max(size, into.length * 2)];
+        }
+        int offset = 0;
+        for (int bucket = 0; bucket < layerCount; bucket++) {
+            if (ungrouped[bucket]) {
+                groupSprites(bucket);
+            }
+            System.arraycopy(buckets[bucket], 0, into, offset, bucketSizes[bucket]);
+            offset += bucketSizes[bucket];
+        }
+        Arrays.fill(into, offset, into.length, null);
+        return into;
+    }
+
+    // a stable sort, so entities that aren't sprites keep their order
+    private void groupSprites(int bucket) {
+        Entity[] bucketEntities = buckets[bucket];
+        Arrays.sort(bucketEntities, 0, bucketSizes[bucket], BY_PAGE);
+        for (int i = 0; i < bucketSizes[bucket]; i++) {
+            setIndex(bucketEntities[i], i);
+        }
+        ungrouped[bucket] = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static void setIndex(Entity entity, int index) {
+        if (entity instanceof ManagedEntity) {
+            ((ManagedEntity) entity).setLayerIndex(index);
+        }
+    }
+
+    private int findOrAddBucket(int renderLayer) {
+        int bucket = Arrays.binarySearch(layers, 0, layerCount, renderLayer);
+        if (bucket >= 0) {return bucket;}
+
+        bucket = -bucket - 1;
+        if (layerCount == layers.length) {
+            layers = Arrays.copyOf(layers, layerCount * 2);
+            buckets = Arrays.copyOf(buckets, layerCount * 2);
+            bucketSizes = Arrays.copyOf(bucketSizes, layerCount * 2);
+            ungrouped = Arrays.copyOf(ungrouped, layerCount * 2);
+        }
+        System.arraycopy(layers, bucket, layers, bucket + 1, layerCount - bucket);
+        System.arraycopy(buckets, bucket, buckets, bucket + 1, layerCount - bucket);
+        System.arraycopy(bucketSizes, bucket, bucketSizes, bucket + 1, layerCount - bucket);
+        System.arraycopy(ungrouped, bucket, ungrouped, bucket + 1, layerCount - bucket);
+        layers[bucket] = renderLayer;
+        buckets[bucket] = new Entity[16];
+        bucketSizes[bucket] = 0;
+        ungrouped[bucket] = false;
+        layerCount++;
+        return bucket;
+    }
+}
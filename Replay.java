@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// a recorded run: the snapshot it started from, the fixed time step and a hash of every frame. verify() restores the
+// snapshot, feeds the same input through the same steps and finds the first frame that came out differently.
+// taking the snapshot wakes every sleeping entity and drops the order sweep and prune kept from earlier ticks, so the
+// recorded run and the replay go to sleep on the same ticks and resolve collisions in the same order
+public final class Replay {
+
+    // applies whatever the game did before the given tick, from its own input log. it is called on the thread
+    // stepping the screen, so anything it queues is applied at the start of that tick
+    public interface Input {
+        public void beforeTick(Screen screen, long tick);
+    }
+
+    private static final int MAGIC = 0x594c5052; // "RPLY" in little endian
+    private static final short VERSION = 1;
+
+    private final ScreenSnapshot start;
+    private final double deltaTimeMs;
+    private final long[] frameHashes;
+
+    private Replay(ScreenSnapshot start, double deltaTimeMs, long[] frameHashes) {
+        this.start = start;
+        this.deltaTimeMs = deltaTimeMs;
+        this.frameHashes = frameHashes;
+    }
+
+    // steps the screen by hand from where it is now, input can be null. the screen's loop must not be running, and
+    // only screens of circles and rectangles can be recorded, see ScreenSnapshot
+    public static Replay record(Screen screen, int frames, double deltaTimeMs, Input input) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("a replay needs at least one frame.");
+        }
+        ScreenSnapshot start = screen.takeSnapshot();
+        long[] frameHashes = new long[frames];
+        for (int frame = 0; frame < frames; frame++) {
+            if (input != null) {input.beforeTick(screen, start.getTickCount() + frame);}
+            screen.step(deltaTimeMs);
+            frameHashes[frame] = hashFrame(screen);
+        }
+        return new Replay(start, deltaTimeMs, frameHashes);
+    }
+
+    // replays onto the screen, which must be the same size as the one recorded, and returns the first frame whose
+    // hash doesn't match, or -1 when every frame matched
+    public int verify(Screen screen, Input input) {
+        screen.restoreSnapshot(start);
+        for (int frame = 0; frame < frameHashes.length; frame++) {
+            if (input != null) {input.beforeTick(screen, start.getTickCount() + frame);}
+            screen.step(deltaTimeMs);
+            if (hashFrame(screen) != frameHashes[frame]) {return frame;}
+        }
+        return -1;
+    }
+
+    // 64 bit FNV-1a over the framebuffer
+    public static long hashFrame(Screen screen) {
+        int[] pixels = screen.getPixels();
+        int pixelCount = screen.getWindowWidth() * screen.getWindowHeight();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < pixelCount; i++) {
+            hash = (hash ^ pixels[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // the format is the magic number, the version, the time step, the frame count, the hashes and then the snapshot
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer snapshot = start.toByteBuffer();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + 8 + 4 + frameHashes.length * 8 + snapshot.remaining())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION).putDouble(deltaTimeMs).putInt(frameHashes.length);
+        for (long frameHash : frameHashes) {
+            buffer.putLong(frameHash);
+        }
+        buffer.put(snapshot);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static Replay fromByteBuffer(ByteBuffer bytes) {
+        ByteBuffer buffer = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 18 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("the bytes aren't a replay.");
+        }
+        if (buffer.getShort() != VERSION) {
+            throw new IllegalArgumentException("the replay was written by an unsupported version.");
+        }
+        double deltaTimeMs = buffer.getDouble();
+        long[] frameHashes = new long[buffer.getInt()];
+        for (int frame = 0; frame < frameHashes.length; frame++) {
+            frameHashes[frame] = buffer.getLong();
+        }
+        return new Replay(ScreenSnapshot.fromByteBuffer(buffer), deltaTimeMs, frameHashes);
+    }
+
+    public ScreenSnapshot getStart() {
+        return start;
+    }
+
+    public int getFrameCount() {
+        return frameHashes.length;
+    }
+
+    public double getDeltaTimeMs() {
+        return deltaTimeMs;
+    }
+}
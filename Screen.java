@@ -1,39 +1,91 @@
-import java.awt.Graphics;
-import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
-import javax.swing.JFrame;
-
-public class Screen extends JFrame implements Runnable {
+public class Screen implements Runnable {
     
-    private boolean running;
+    private volatile boolean running;
     private Thread thread;
     private BufferedImage image;
     private int[] pixels;
-    private ArrayList<Entity> entities;
+    private Rasterizer rasterizer;
+    private volatile FrameSink[] frameSinks;
+    private volatile boolean pipelinedPresentEnabled;
+    private volatile FramePresenter presenter; // presents on its own thread while pipelined, only set by the loop thread
+    private volatile long framesPresentedBefore; // by presenters that were stopped since
+    private volatile long framesSkippedBefore;
+    private DamageTracker damageTracker; // null unless dirty rectangle drawing is enabled
+    private volatile LayerCompositor layerCompositor; // null until a layer is given an opacity
+    private final Camera camera;
+    private volatile CullingGrid cullingGrid; // null unless viewport culling is enabled
+    private volatile ActivityTracker activityTracker; // null unless sleeping is enabled
+    private Entity[] visibleEntities; // the entities in view this frame in draw order, when culling
+    private int[] visibleIndices;
+    private double viewOffsetX; // the camera as read at the start of the frame being drawn
+    private double viewOffsetY;
+    private double viewZoom;
+    private volatile boolean framePacingEnabled;
+    private volatile long spanCacheBudgetBytes;
+    private final EntityCommandQueue commandQueue; // adds, removes and mutations from any thread, applied at the start of a tick
+    private final EntityCommandQueue.Handler commandHandler;
+    private volatile Thread loopThread;
+    private final Object frameLock = new Object(); // held for every frame, by the loop or a thread calling step()
+    private volatile EntityPool<?>[] entityPools;
+    private RenderLayers renderLayers;
+    private Entity[] entityArray; // every entity in draw order, rebuilt from renderLayers when it changes
+    private int entityCount;
+    private Entity[] looseEntities; // entities updated through updatePosition() instead of the entity store
+    private int looseEntityCount;
+    private EntityStore entityStore;
+    private boolean entityStoreEnabled;
+    private Broadphase broadphase;
+    private PairBuffer collisionPairs;
+    private PairBuffer collidingPairs;
+    private ContactCache contactCache;
+    private WorkerPool workerPool; // null when everything runs on the loop thread
+    private volatile int parallelism;
+    private int candidatePairCount;
+    private int collidingPairCount;
     private int backgroundColor;
     private int windowHeight;
     private int windowWidth;
-    private boolean newEntityAdded;
+    private volatile int worldWidth; // where entities bounce off the borders, the window size unless set
+    private volatile int worldHeight;
+    private volatile boolean entityListChanged;
 
     private long timeStartedNs;
     private long updateTimeTotalNs;
     private long renderTimeTotalNs;
     private long lastTimeNs;
     private int targetFps;
-    private int lastDelayMs;
+    private long lastFrameTimeNs;
+    private FramePacer framePacer;
+    private volatile int fixedTickRate; // ticks per second, 0 when the tick length follows the frame time
+    private int maxTicksPerFrame;
+    private long accumulatorNs;
+    private long tickCount;
     private boolean debugPrintingEnabled;
     private double deltaTimeMs;
     private int totalFrames;
+    private volatile FrameMetrics frameMetrics; // null unless metrics are enabled
+    private boolean jfrEventsEnabled;
+    private FrameMetrics currentMetrics; // what the frame in progress records into, only touched by the loop thread
 
-    private static final int DEFAULT_BACKGORUND_COLOR = 0x151525;
+    protected static final int DEFAULT_BACKGORUND_COLOR = 0x151525;
     private static final String DEFAULT_WINDOW_TITLE = "game window";
     public static final int DEFAULT_WINDOW_WIDTH = 800;
     public static final int DEFAULT_WINDOW_HEIGHT = 600;
     private static final int DEFAULT_TARGET_FPS = 60;
+    private static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+    private static final int COMMAND_QUEUE_CAPACITY = 1 << 14; // bulk adds and removes take a single slot
 
     public Screen() {
         this(DEFAULT_WINDOW_TITLE, DEFAULT_BACKGORUND_COLOR);
@@ -44,20 +96,42 @@ public class Screen extends JFrame implements Runnable {
     }
 
     public Screen(String windowTitle, int backgroundColor, int windowWidth, int windowHeight) {
-        setTitle(windowTitle);
-        setSize(windowWidth, windowHeight);
-        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-        setLocationRelativeTo(null);
-        setVisible(true);
+        this(backgroundColor, windowWidth, windowHeight);
+        addFrameSink(new WindowFrameSink(windowTitle, windowWidth, windowHeight));
+    }
 
+    // a screen that only presents to the sinks added to it, see HeadlessScreen
+    protected Screen(int backgroundColor, int windowWidth, int windowHeight) {
         this.backgroundColor = backgroundColor;
         this.windowWidth = windowWidth;
         this.windowHeight = windowHeight;
+        worldWidth = windowWidth;
+        worldHeight = windowHeight;
+        camera = new Camera();
+        visibleEntities = new Entity[0];
+        visibleIndices = new int[0];
         targetFps = DEFAULT_TARGET_FPS;
+        framePacer = new FramePacer();
+        maxTicksPerFrame = DEFAULT_MAX_TICKS_PER_FRAME;
         debugPrintingEnabled = false;
-        entities = new ArrayList<>();
+        commandQueue = new EntityCommandQueue(COMMAND_QUEUE_CAPACITY);
+        commandHandler = this::applyCommand;
+        renderLayers = new RenderLayers();
+        entityPools = new EntityPool<?>[0];
+        entityArray = new Entity[0];
+        looseEntities = new Entity[0];
+        entityStore = new EntityStore();
+        broadphase = new GridBroadphase();
+        collisionPairs = new PairBuffer();
+        collidingPairs = new PairBuffer();
+        contactCache = new ContactCache();
+        parallelism = 1;
         image = new BufferedImage(windowWidth, windowHeight, BufferedImage.TYPE_INT_RGB);
         pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        rasterizer = new Rasterizer(pixels, windowWidth, windowHeight);
+        frameSinks = new FrameSink[0];
+        framePacingEnabled = true;
+        spanCacheBudgetBytes = SpanCache.DEFAULT_BUDGET_BYTES;
     }
 
     public synchronized void start() {
@@ -66,148 +140,902 @@ public class Screen extends JFrame implements Runnable {
         thread.start();
     }
 
+    // waits for the loop to finish, then closes and removes every frame sink and shuts the worker threads down,
+    // so recorders and streams let go of their files and sockets. stop a screen stepped by hand the same way
     public synchronized void stop() {
         running = false;
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            thread = null;
+        }
+        stopPresenter();
+
+        FrameSink[] sinks = frameSinks;
+        frameSinks = new FrameSink[0];
+        RuntimeException failure = null;
+        for (FrameSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                if (failure == null) {failure = e;} // the other sinks still get closed
+            }
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
     public void run() {
+        loopThread = Thread.currentThread();
         timeStartedNs = System.nanoTime();
         lastTimeNs = timeStartedNs;
+        long nextFrameNs = timeStartedNs;
+        accumulatorNs = 0;
+        framePacer.reset();
 
         while(running) {
-            update();
-            render();
-            try {
-                Thread.sleep(getFrameDelay());
-            } catch (IllegalArgumentException rushing) {}
-            catch (InterruptedException interupt) {
-                System.out.println("interupted in run loop");
-                interupt.printStackTrace();
+            long frameStartNs = System.nanoTime();
+            framePacer.frameStarted(frameStartNs);
+            synchronized(frameLock) {
+                startFrameMetrics();
+                if (fixedTickRate > 0) {
+                    runFixedTimestepFrame();
+                }
+                else {
+                    update();
+                    render();
+                }
+                finishFrameMetrics(frameStartNs);
+            }
+            if (!framePacingEnabled) {continue;}
+
+            long frameNs = 1000000000L / targetFps;
+            nextFrameNs += frameNs;
+            long nowNs = System.nanoTime();
+            if (nowNs - nextFrameNs > frameNs) {
+                nextFrameNs = nowNs; // more than a frame behind, start pacing again from now instead of rushing to catch up
+            }
+            framePacer.waitUntil(nextFrameNs);
+        }
+        loopThread = null;
+    }
+
+    // runs as many fixed length ticks as the time since the last frame covers, then draws the entities
+    // interpolated between the last two ticks by whatever time is left over
+    private void runFixedTimestepFrame() {
+        handleDebugInfo();
+        long startUpdateTimeNs = System.nanoTime();
+        long tickNs = 1000000000L / fixedTickRate;
+        accumulatorNs += lastFrameTimeNs;
+
+        int ticks = 0;
+        while (accumulatorNs >= tickNs && ticks < maxTicksPerFrame) {
+            storePreviousPositions();
+            deltaTimeMs = tickNs / 1000000.0;
+            simulate();
+            accumulatorNs -= tickNs;
+            ticks++;
+        }
+        if (accumulatorNs >= tickNs) {
+            accumulatorNs = tickNs - 1; // too far behind to catch up, drop the time instead of spiralling
+        }
+        updateTimeTotalNs += System.nanoTime() - startUpdateTimeNs;
+
+        interpolatePositions(accumulatorNs / (double) tickNs);
+        render();
+        restorePositions();
+    }
+
+    private void storePreviousPositions() {
+        if (entityStoreEnabled) {
+            entityStore.storePreviousPositions();
+        }
+        for (int i = 0; i < looseEntityCount; i++) {
+            if (looseEntities[i] instanceof ManagedEntity) {
+                ((ManagedEntity) looseEntities[i]).storePreviousPosition();
             }
         }
     }
 
+    private void interpolatePositions(double alpha) {
+        if (entityStoreEnabled) {
+            entityStore.interpolate(alpha);
+        }
+        for (int i = 0; i < looseEntityCount; i++) {
+            if (looseEntities[i] instanceof ManagedEntity) {
+                ((ManagedEntity) looseEntities[i]).interpolatePosition(alpha);
+            }
+        }
+    }
+
+    private void restorePositions() {
+        if (entityStoreEnabled) {
+            entityStore.restorePositions();
+        }
+        for (int i = 0; i < looseEntityCount; i++) {
+            if (looseEntities[i] instanceof ManagedEntity) {
+                ((ManagedEntity) looseEntities[i]).restorePosition();
+            }
+        }
+    }
+
+    // runs a single frame with the given time step on the calling thread, for driving the screen by hand
+    public void step(double deltaTimeMs) {
+        synchronized(frameLock) {
+            long frameStartNs = System.nanoTime();
+            startFrameMetrics();
+            this.deltaTimeMs = deltaTimeMs;
+            simulate();
+            render();
+            finishFrameMetrics(frameStartNs);
+        }
+    }
+
     private void update() {
         handleDebugInfo();
+        long startUpdateTimeNs = System.nanoTime();
+        simulate();
+        updateTimeTotalNs += System.nanoTime() - startUpdateTimeNs;
+    }
+
+    private void startFrameMetrics() {
+        currentMetrics = frameMetrics;
+        if (currentMetrics != null) {
+            currentMetrics.frameStarted();
+        }
+    }
+
+    private void finishFrameMetrics(long frameStartNs) {
+        if (currentMetrics == null) {return;}
+
+        currentMetrics.frameFinished(System.nanoTime() - frameStartNs);
+        currentMetrics = null;
+    }
+
+    // package private so Benchmark can time the simulation without drawing
+    void simulate() {
+        drainCommands();
+        for (EntityPool<?> pool : entityPools) {
+            pool.expire(deltaTimeMs);
+        }
+        if (entityListChanged) {
+            entityListChanged = false;
+            entityArray = renderLayers.flatten(entityArray);
+            entityCount = renderLayers.size();
+            syncEntityStore();
+            if (damageTracker != null) {
+                damageTracker.invalidate();
+            }
+            CullingGrid grid = cullingGrid;
+            if (grid != null) {
+                grid.invalidate();
+            }
+            broadphase.entitiesChanged();
+            contactCache.dropRemoved();
+            ActivityTracker tracker = activityTracker;
+            if (tracker != null) {
+                tracker.invalidate();
+            }
+        }
+        ActivityTracker tracker = activityTracker;
+        if (tracker != null) {
+            tracker.update(entityArray, entityCount);
+        }
+
+        applyParallelism();
+        updatePositions();
+        checkCollisions();
+        tickCount++;
+    }
+
+    // queueCommand() already drains under the frame lock, this one is for Benchmark calling simulate() on its own
+    private void drainCommands() {
+        synchronized(commandQueue) {
+            commandQueue.drain(commandHandler);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyCommand(int command, Entity entity, Object argument, double value) {
+        switch (command) {
+            case EntityCommandQueue.ADD:
+                addToLayers(entity);
+                break;
+            case EntityCommandQueue.REMOVE:
+                removeNow(entity);
+                break;
+            case EntityCommandQueue.MUTATE:
+                int renderLayer = entity.getRenderLayer();
+                ((Consumer<Entity>) argument).accept(entity);
+                if (entity.getRenderLayer() != renderLayer && renderLayers.remove(entity, renderLayer)) {
+                    renderLayers.add(entity);
+                    entityListChanged = true;
+                }
+                break;
+            case EntityCommandQueue.ADD_ALL:
+                for (Entity toAdd : (Entity[]) argument) {
+                    addToLayers(toAdd);
+                }
+                break;
+            case EntityCommandQueue.REMOVE_ALL:
+                Entity[] toRemove = (Entity[]) argument;
+                Set<Entity> removing = Collections.newSetFromMap(new IdentityHashMap<>(toRemove.length * 2));
+                Collections.addAll(removing, toRemove);
+                if (renderLayers.removeAll(removing) > 0) {
+                    for (Entity removed : removing) {
+                        removedFromLayers(removed);
+                    }
+                }
+                break;
+            case EntityCommandQueue.SPAWN:
+                addToLayers(entity);
+                ((EntityPool<?>) argument).spawned(entity, value);
+                break;
+            case EntityCommandQueue.DESPAWN:
+                ((EntityPool<?>) argument).despawned(entity);
+                break;
+            case EntityCommandQueue.RESTORE:
+                restoreNow((ScreenSnapshot) argument);
+                break;
+        }
+    }
+
+    // swaps every entity for the snapshot's, in the snapshot's draw order, and picks the tick count and timing back up
+    private void restoreNow(ScreenSnapshot snapshot) {
+        for (Entity entity : renderLayers.flatten(new Entity[renderLayers.size()])) {
+            removedFromLayers(entity);
+        }
+        renderLayers = new RenderLayers();
+        contactCache.clear();
+        broadphase.entitiesChanged(); // sweep and prune starts from a fresh order, as the screen that took the snapshot did
+
+        EntityPool<?>[] pools = entityPools;
+        for (EntityPool<?> pool : pools) {
+            pool.clearLive();
+        }
+        Entity[] restored = new Entity[snapshot.getEntityCount()];
+        snapshot.readEntities(restored, pools);
+        for (Entity entity : restored) {
+            addToLayers(entity);
+        }
+
+        ByteBuffer header = snapshot.header();
+        tickCount = header.getLong();
+        deltaTimeMs = header.getDouble();
+        accumulatorNs = header.getLong();
+        fixedTickRate = header.getInt();
+        worldWidth = header.getInt();
+        worldHeight = header.getInt();
+        setBackgroundColor(header.getInt());
+    }
+
+    // the fields ScreenSnapshot stores after its version, in the order restoreNow() reads them
+    void writeSnapshotHeader(ByteBuffer buffer) {
+        buffer.putLong(tickCount).putDouble(deltaTimeMs).putLong(accumulatorNs).putInt(fixedTickRate);
+        buffer.putInt(worldWidth).putInt(worldHeight).putInt(backgroundColor);
+    }
+
+    // the entities and simulation state as of the last tick. call it between ticks: from the loop thread, inside
+    // mutateEntity(), or while the loop isn't running. throws right away when there is a sprite or a shape other than
+    // a circle or rectangle on the screen, see ScreenSnapshot
+    public ScreenSnapshot takeSnapshot() {
+        ScreenSnapshot.checkWritable(entityArray, entityCount);
+        ActivityTracker tracker = activityTracker;
+        if (tracker != null) {
+            tracker.reset(); // a restored screen starts with every entity awake, so this one has to as well
+        }
+        broadphase.entitiesChanged(); // and with no order left over from earlier ticks, which decides the collision order
+        return ScreenSnapshot.write(this, entityArray, entityCount, entityPools);
+    }
+
+    // replaces every entity with the snapshot's at the start of the next tick, in order with the other commands,
+    // which then carries on from the snapshot's tick
+    public void restoreSnapshot(ScreenSnapshot snapshot) {
+        queueCommand(EntityCommandQueue.RESTORE, null, snapshot, 0);
+    }
+
+    // for the loop thread only, O(1) for the built in shapes
+    void removeNow(Entity entity) {
+        if (renderLayers.remove(entity, entity.getRenderLayer())) {
+            removedFromLayers(entity);
+        }
+    }
+
+    synchronized void addEntityPool(EntityPool<?> pool) {
+        EntityPool<?>[] pools = Arrays.copyOf(entityPools, entityPools.length + 1);
+        pools[pools.length - 1] = pool;
+        entityPools = pools;
+    }
+
+    private void addToLayers(Entity entity) {
+        entity.setParent(this);
+        renderLayers.add(entity);
+        entityListChanged = true;
+    }
+
+    private void removedFromLayers(Entity entity) {
+        if (entity instanceof ManagedEntity && ((ManagedEntity) entity).getStore() == entityStore) {
+            ((ManagedEntity) entity).detachFromStore();
+        }
+        contactCache.remove(entity);
+        entityListChanged = true;
+    }
 
-        if (newEntityAdded) {
-            synchronized(this) {
-                Collections.sort(entities);
+    // producers only lock when the queue is full and the loop isn't running. the thread in the middle of a frame
+    // queues its own commands without ever waiting on itself
+    void queueCommand(int command, Entity entity, Object argument, double value) {
+        if (Thread.currentThread() == loopThread || Thread.holdsLock(frameLock)) {
+            commandQueue.offerFromDrainingThread(command, entity, argument, value);
+            return;
+        }
+        while (!commandQueue.offer(command, entity, argument, value)) {
+            if (running) {
+                Thread.yield(); // the loop empties the queue at the start of its next tick
+                continue;
+            }
+            // nothing else will make room, but another thread can be stepping the screen by hand, or the loop can
+            // still be finishing its last frame after stop(), so the queue is only applied between frames
+            synchronized(frameLock) {
+                if (!running) {drainCommands();}
             }
-            newEntityAdded = false;
         }
+    }
+
+    private void syncEntityStore() {
+        if (looseEntities.length < entityCount) {
+            looseEntities = new Entity[entityArray.length];
+        }
+
+        looseEntityCount = 0;
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entityArray[i];
 
-        synchronized (this) {
-            for (Entity entity : entities) {
-                entity.updatePosition();
+            if (entity instanceof ManagedEntity) {
+                ManagedEntity managed = (ManagedEntity) entity;
+                boolean stored = managed.getStore() == entityStore;
+
+                if (entityStoreEnabled && !stored) {
+                    managed.attachToStore(entityStore);
+                }
+                else if (!entityStoreEnabled && stored) {
+                    managed.detachFromStore();
+                }
+                if (entityStoreEnabled) {continue;}
             }
+            looseEntities[looseEntityCount++] = entity;
         }
+    }
 
-        for (int checkingEntityIndex = 0; checkingEntityIndex < entities.size(); checkingEntityIndex++) {
-            Entity checking = entities.get(checkingEntityIndex);
-            if (!checking.collidesWithEntities()) {continue;}
+    private void applyParallelism() {
+        int current = workerPool == null ? 1 : workerPool.getParallelism();
+        if (current == parallelism) {return;}
 
-            for (int checkedEntityIndex = checkingEntityIndex + 1; checkedEntityIndex < entities.size(); checkedEntityIndex++) {
-                Entity checked = entities.get(checkedEntityIndex);
-                if(checked.getCollisionLayer() > checking.getCollisionLayer()) {break;}
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        workerPool = parallelism == 1 ? null : new WorkerPool(parallelism);
+        if (workerPool != null) {
+            workerPool.setSpanCacheBudgetBytes(spanCacheBudgetBytes);
+        }
+    }
 
-                if(!checked.collidesWithEntities() || !checking.collidesWith(checked)) {continue;}
+    private void updatePositions() {
+        long startNs = currentMetrics == null ? 0 : System.nanoTime();
 
-                //System.out.println("collisonj");
-                checking.resolveCollision(checked);
+        ActivityTracker tracker = activityTracker;
+        if (tracker != null && !tracker.isStale()) {
+            // entities in the store integrate their own slot, sleeping ones are left where they are
+            if (workerPool != null) {
+                workerPool.updatePositions(tracker.getAwakeEntities(), tracker.getAwakeCount());
+            }
+            else {
+                Entity[] awake = tracker.getAwakeEntities();
+                for (int i = 0; i < tracker.getAwakeCount(); i++) {
+                    awake[i].updatePosition();
+                }
             }
         }
+        else if (workerPool != null) {
+            if (entityStoreEnabled) {
+                workerPool.integrate(entityStore, deltaTimeMs / 1000.0, worldWidth, worldHeight);
+            }
+            workerPool.updatePositions(looseEntities, looseEntityCount);
+        }
+        else {
+            if (entityStoreEnabled) {
+                entityStore.integrate(deltaTimeMs / 1000.0, worldWidth, worldHeight);
+            }
+            for (int i = 0; i < looseEntityCount; i++) {
+                looseEntities[i].updatePosition();
+            }
+        }
+
+        if (currentMetrics != null) {
+            currentMetrics.addPhaseTime(FrameMetrics.Phase.INTEGRATION, System.nanoTime() - startNs);
+        }
+    }
+
+    // package private so Benchmark can time the phase on its own
+    void checkCollisions() {
+        collisionPairs.clear();
+        collidingPairs.clear();
+        FrameMetrics metrics = currentMetrics;
+        long startNs = metrics == null ? 0 : System.nanoTime();
 
+        ActivityTracker tracker = activityTracker;
+        if (tracker != null && tracker.isStale()) {tracker = null;} // enabled since the tick started
+        if (tracker != null) {
+            tracker.findPairs(broadphase, collisionPairs);
+        }
+        else {
+            broadphase.findPairs(entityArray, entityCount, collisionPairs);
+        }
+
+        long broadphaseEndNs = metrics == null ? 0 : System.nanoTime();
+
+        if (workerPool != null) {
+            workerPool.findCollisions(entityArray, collisionPairs, collidingPairs);
+        }
+        else {
+            for (int pair = 0; pair < collisionPairs.size(); pair++) {
+                int first = collisionPairs.getFirst(pair);
+                int second = collisionPairs.getSecond(pair);
+
+                if (entityArray[first].collidesWith(entityArray[second])) {
+                    collidingPairs.add(first, second);
+                }
+            }
+        }
 
-        updateTimeTotalNs += System.nanoTime() - lastTimeNs;
+        // resolving stays on the loop thread and in pair order, so results don't depend on the thread count
+        contactCache.nextTick();
+        for (int pair = 0; pair < collidingPairs.size(); pair++) {
+            entityArray[collidingPairs.getFirst(pair)].resolveCollision(entityArray[collidingPairs.getSecond(pair)]);
+        }
+        if (tracker != null) {
+            tracker.endTick();
+        }
+
+        candidatePairCount = collisionPairs.size();
+        collidingPairCount = collidingPairs.size();
+
+        if (metrics != null) {
+            metrics.addPhaseTime(FrameMetrics.Phase.BROADPHASE, broadphaseEndNs - startNs);
+            metrics.addPhaseTime(FrameMetrics.Phase.NARROWPHASE, System.nanoTime() - broadphaseEndNs);
+            metrics.addCollisionPairs(candidatePairCount, collidingPairCount);
+        }
     }
 
     private void handleDebugInfo() {
         long currentTimeNs = System.nanoTime();
 
-        deltaTimeMs = (currentTimeNs - lastTimeNs) / 1000000.0;
+        lastFrameTimeNs = currentTimeNs - lastTimeNs;
+        deltaTimeMs = lastFrameTimeNs / 1000000.0;
 
         lastTimeNs = currentTimeNs;
 
+        totalFrames++;
         if (!debugPrintingEnabled) {return;}
 
-        totalFrames++;
         if (totalFrames % 100 == 0) {
             
             System.out.printf("fps: %.0f\naverage fps: %.1f\naverage update time per frame: %.2f ms\n" +
-                    "average render time per frame: %.2f ms\n"
+                    "average render time per frame: %.2f ms\ncollision pairs: %d candidates, %d colliding\n" +
+                    "frame time: %.3f ms mean, %.3f ms standard deviation\n"
                     , 1000 / deltaTimeMs, totalFrames / ((currentTimeNs - timeStartedNs) / 1000000000.0),
-                    (updateTimeTotalNs / 1000000.0) / totalFrames, (renderTimeTotalNs / 1000000.0) / totalFrames);
+                    (updateTimeTotalNs / 1000000.0) / totalFrames, (renderTimeTotalNs / 1000000.0) / totalFrames,
+                    candidatePairCount, collidingPairCount, framePacer.getMeanFrameTimeMs(), framePacer.getFrameTimeStdDevMs());
         }
     }
 
-    private int getFrameDelay() {
-        int frameComputeTimeMs = (int) deltaTimeMs - lastDelayMs;
-        return lastDelayMs = (int) (1000.0 / targetFps) - frameComputeTimeMs;
-    }
-
     private void render() {
         long startRenderTimeNs = System.nanoTime();
 
+        drawScreen();
 
-        BufferStrategy bs = getBufferStrategy();
-
-        if (bs == null) {
-            createBufferStrategy(3);
-            return;
+        long startPresentTimeNs = System.nanoTime();
+        if (pipelinedPresentEnabled) {
+            if (presenter == null) {
+                presenter = new FramePresenter(windowWidth, windowHeight, () -> frameSinks);
+            }
+            presenter.publish(pixels); // what's timed as presenting is only the handoff
+        }
+        else {
+            stopPresenter();
+            for (FrameSink sink : frameSinks) {
+                sink.present(image, pixels, windowWidth, windowHeight);
+            }
+        }
+        if (currentMetrics != null) {
+            currentMetrics.addPhaseTime(FrameMetrics.Phase.PRESENT, System.nanoTime() - startPresentTimeNs);
         }
 
-        drawScreen();
-        Graphics g = bs.getDrawGraphics();
-        g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+        renderTimeTotalNs += System.nanoTime() - startRenderTimeNs;
+    }
 
-        bs.show();
+    // package private so Benchmark can time the phase on its own
+    void drawScreen() {
+        applySpanCacheBudget();
+        boolean defaultView = applyView();
+        FrameMetrics metrics = currentMetrics;
+        long startNs = metrics == null ? 0 : System.nanoTime();
+        long clearNs = 0;
+        long pixelsWritten;
 
+        // culling is counted as rasterizing, it is what saves the rasterizing
+        Entity[] entities = entityArray;
+        int count = entityCount;
+        CullingGrid grid = cullingGrid;
+        if (grid != null) {
+            count = cullEntities(grid);
+            entities = visibleEntities;
+        }
 
-        renderTimeTotalNs += System.nanoTime() - startRenderTimeNs;
+        // dirty rectangles compare entities by index against the last frame, and moving the camera moves everything
+        DamageTracker tracker = damageTracker;
+        if (tracker != null && (grid != null || !defaultView)) {
+            tracker.invalidate();
+            tracker = null;
+        }
+
+        LayerCompositor compositor = layerCompositor;
+        if (compositor != null && compositor.hasTranslucentLayers()) {
+            // translucent layers are drawn on the loop thread over full frames, dirty rectangles and bands are skipped
+            drawBackGround();
+            clearNs = metrics == null ? 0 : System.nanoTime() - startNs;
+            long composited = compositor.drawEntities(entities, count, rasterizer);
+            pixelsWritten = (long) windowWidth * windowHeight + rasterizer.takePixelsWritten() + composited;
+        }
+        else if (tracker != null && tracker.collect(entities, count)) {
+            tracker.drawRegions(rasterizer, entities, count, backgroundColor);
+            pixelsWritten = rasterizer.takePixelsWritten();
+        }
+        else if (workerPool != null && workerPool.splitsFrame(windowWidth, windowHeight)) {
+            // bands clear and draw in the same task, so both are counted as rasterizing
+            workerPool.drawFrame(entities, count, pixels, windowWidth, windowHeight, backgroundColor);
+            pixelsWritten = workerPool.takePixelsWritten();
+        }
+        else {
+            drawBackGround();
+            clearNs = metrics == null ? 0 : System.nanoTime() - startNs;
+            drawEntities(entities, count);
+            pixelsWritten = (long) windowWidth * windowHeight + rasterizer.takePixelsWritten();
+        }
+
+        if (metrics != null) {
+            metrics.addPhaseTime(FrameMetrics.Phase.CLEAR, clearNs);
+            metrics.addPhaseTime(FrameMetrics.Phase.RASTERIZE, System.nanoTime() - startNs - clearNs);
+            metrics.addPixelsWritten(pixelsWritten);
+        }
     }
 
-    private void drawScreen() {
-        drawBackGround();
-        drawEntities();
+    private void applySpanCacheBudget() {
+        long budgetBytes = spanCacheBudgetBytes;
+        if (rasterizer.getSpanCache().getBudgetBytes() == budgetBytes) {return;}
+
+        rasterizer.getSpanCache().setBudgetBytes(budgetBytes);
+        if (layerCompositor != null) {
+            layerCompositor.setSpanCacheBudgetBytes(budgetBytes);
+        }
+        if (workerPool != null) {
+            workerPool.setSpanCacheBudgetBytes(budgetBytes);
+        }
     }
 
     private void drawBackGround() {
-        for (int i = 0; i < windowWidth * windowHeight; i++) {
-            pixels[i] = backgroundColor;
-        }
-    }
-
-    private synchronized void drawEntities() {
-        // for (int i = 0; i < windowWidth * windowHeight; i++) {
-        //     for (Entity entity : entities) {
-        //         int color = entity.getColor();
-        //         if (entity.covers(i)) {
-        //             pixels[i] = color;
-        //         }
-        //     }
-        // }
-        for (Entity entity : entities) {
-            int color = entity.getColor();
-            for (int pixel : entity.getBoundingBoxPixels()) {
-                // pixels[pixel] = 0xffffff;
-                if (entity.covers(pixel)) {
-                    pixels[pixel] = color;
-                }
-            }
+        Arrays.fill(pixels, 0, windowWidth * windowHeight, backgroundColor);
+    }
+
+    private void drawEntities(Entity[] entities, int count) {
+        for (int i = 0; i < count; i++) {
+            entities[i].rasterize(rasterizer);
+        }
+    }
+
+    // reads the camera once for the whole frame and hands it to every rasterizer, returns whether it is the default view
+    private boolean applyView() {
+        viewOffsetX = camera.getOffsetX();
+        viewOffsetY = camera.getOffsetY();
+        viewZoom = camera.getZoom();
+
+        rasterizer.setView(viewOffsetX, viewOffsetY, viewZoom);
+        if (layerCompositor != null) {
+            layerCompositor.setView(viewOffsetX, viewOffsetY, viewZoom);
+        }
+        if (workerPool != null) {
+            workerPool.setView(viewOffsetX, viewOffsetY, viewZoom);
+        }
+        return rasterizer.hasDefaultView();
+    }
+
+    // fills visibleEntities with the entities overlapping the camera's view, in draw order
+    private int cullEntities(CullingGrid grid) {
+        grid.update(entityArray, entityCount, entityStoreEnabled ? entityStore : null);
+        if (visibleIndices.length < entityCount) {
+            visibleIndices = new int[entityArray.length];
+            visibleEntities = new Entity[entityArray.length];
         }
+
+        // a pixel of slack on every side for rounding the positions to pixels
+        int minX = (int) Math.floor(viewOffsetX) - 1;
+        int minY = (int) Math.floor(viewOffsetY) - 1;
+        int maxX = (int) Math.ceil(viewOffsetX + windowWidth / viewZoom) + 1;
+        int maxY = (int) Math.ceil(viewOffsetY + windowHeight / viewZoom) + 1;
+
+        int count = grid.query(entityArray, minX, minY, maxX, maxY, visibleIndices);
+        for (int i = 0; i < count; i++) {
+            visibleEntities[i] = entityArray[visibleIndices[i]];
+        }
+        Arrays.fill(visibleEntities, count, visibleEntities.length, null);
+        return count;
     }
 
+    // adds, removes and mutations can be called from any thread without blocking the loop,
+    // they are applied in the order they were made at the start of the next tick
     public void addEntity(Entity toAdd) {
-        synchronized(this) {
-            entities.add(toAdd);
-            toAdd.setParent(this);
-            newEntityAdded = true;
+        queueCommand(EntityCommandQueue.ADD, toAdd, null, 0);
+    }
+
+    public void removeEntity(Entity toRemove) {
+        queueCommand(EntityCommandQueue.REMOVE, toRemove, null, 0);
+    }
+
+    public void addEntities(Collection<? extends Entity> toAdd) {
+        queueCommand(EntityCommandQueue.ADD_ALL, null, toAdd.toArray(new Entity[0]), 0);
+    }
+
+    public void removeEntities(Collection<? extends Entity> toRemove) {
+        queueCommand(EntityCommandQueue.REMOVE_ALL, null, toRemove.toArray(new Entity[0]), 0);
+    }
+
+    // runs the mutation on the loop thread between ticks, where it is safe to change anything including the render layer
+    public <E extends Entity> void mutateEntity(E entity, Consumer<? super E> mutation) {
+        queueCommand(EntityCommandQueue.MUTATE, entity, mutation, 0);
+    }
+
+    // a copy of the entities in draw order as of the last tick. call it from the loop thread
+    // or while the screen isn't running, commands queued since the last tick aren't included
+    public List<Entity> getEntities() {
+        return new ArrayList<>(Arrays.asList(entityArray).subList(0, entityCount));
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public synchronized void addFrameSink(FrameSink sink) {
+        FrameSink[] sinks = Arrays.copyOf(frameSinks, frameSinks.length + 1);
+        sinks[sinks.length - 1] = sink;
+        frameSinks = sinks;
+    }
+
+    public synchronized void removeFrameSink(FrameSink sink) {
+        FrameSink[] sinks = new FrameSink[frameSinks.length];
+        int count = 0;
+        for (FrameSink current : frameSinks) {
+            if (current != sink) {
+                sinks[count++] = current;
+            }
+        }
+        frameSinks = Arrays.copyOf(sinks, count);
+    }
+
+    // presents every frame to the sinks on a separate thread while the loop simulates and draws the next one,
+    // so a frame takes as long as the slower of the two instead of both. sinks then get a copy of the framebuffer
+    // that stays untouched until they return, and frames the sinks are too slow for are skipped
+    public void setPipelinedPresentEnabled(boolean pipelinedPresentEnabled) {
+        this.pipelinedPresentEnabled = pipelinedPresentEnabled;
+    }
+
+    // frames the presenter thread presented and frames it was too slow for, counted while pipelined present was on
+    public long getFramesPresented() {
+        FramePresenter current = presenter;
+        return framesPresentedBefore + (current == null ? 0 : current.getFramesPresented());
+    }
+
+    public long getFramesSkipped() {
+        FramePresenter current = presenter;
+        return framesSkippedBefore + (current == null ? 0 : current.getFramesPublished() - current.getFramesPresented());
+    }
+
+    private void stopPresenter() {
+        if (presenter == null) {return;}
+
+        presenter.stop();
+        framesPresentedBefore += presenter.getFramesPresented();
+        framesSkippedBefore += presenter.getFramesPublished() - presenter.getFramesPresented();
+        presenter = null;
+    }
+
+    // when disabled the loop runs frames back to back without sleeping
+    public void setFramePacingEnabled(boolean framePacingEnabled) {
+        this.framePacingEnabled = framePacingEnabled;
+    }
+
+    // redraws only the regions entities moved out of or into each frame, instead of the whole frame.
+    // worth it for mostly static scenes, and falls back to full frames when most of the screen changes
+    public synchronized void setDirtyRectanglesEnabled(boolean dirtyRectanglesEnabled) {
+        damageTracker = dirtyRectanglesEnabled ? new DamageTracker(windowWidth, windowHeight) : null;
+    }
+
+    // the camera decides which part of the world is drawn, see Camera
+    public Camera getCamera() {
+        return camera;
+    }
+
+    // entities bounce off the borders of the world instead of the window, the camera can look at any part of it
+    public void setWorldSize(int worldWidth, int worldHeight) {
+        if (worldWidth < 1 || worldHeight < 1) {
+            throw new IllegalArgumentException("the world must be at least 1 by 1 pixels.");
+        }
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+    public int getWorldWidth() {
+        return worldWidth;
+    }
+
+    public int getWorldHeight() {
+        return worldHeight;
+    }
+
+    // only draws the entities in the camera's view, found through a CullingGrid. worth it when most of the world is
+    // off screen, and turns dirty rectangles off while enabled
+    public synchronized void setViewportCullingEnabled(boolean viewportCullingEnabled) {
+        cullingGrid = viewportCullingEnabled ? new CullingGrid() : null;
+    }
+
+    // entities that stop moving and aren't pushed by contacts for a while fall asleep: they aren't moved or given to
+    // the broadphase until an awake entity bounces off or pushes them, or one of their setters is called, see
+    // ActivityTracker. worth it when most entities are at rest. change sleeping entities from the loop thread,
+    // through mutateEntity()
+    public synchronized void setSleepingEnabled(boolean sleepingEnabled) {
+        if (sleepingEnabled == (activityTracker != null)) {return;}
+
+        activityTracker = sleepingEnabled ? new ActivityTracker() : null;
+        entityListChanged = true; // the broadphase goes back to seeing every entity, or only the awake ones
+    }
+
+    // for the setters of the built in shapes
+    void wake(ManagedEntity entity) {
+        ActivityTracker tracker = activityTracker;
+        if (tracker != null) {
+            tracker.wake(entity);
+        }
+    }
+
+    // blends a whole render layer over the layers below it with the given opacity, after its entities were drawn over
+    // each other opaquely. 255 draws the layer straight to the frame again
+    public synchronized void setLayerOpacity(int renderLayer, int opacity) {
+        if (opacity < 0 || opacity > 255) {
+            throw new IllegalArgumentException("layer opacity must be between 0 and 255.");
+        }
+        if (layerCompositor == null) {
+            if (opacity == 255) {return;}
+            LayerCompositor compositor = new LayerCompositor(pixels, windowWidth, windowHeight);
+            compositor.setSpanCacheBudgetBytes(spanCacheBudgetBytes);
+            layerCompositor = compositor;
+        }
+        layerCompositor.setOpacity(renderLayer, opacity);
+        DamageTracker tracker = damageTracker;
+        if (tracker != null) {
+            tracker.invalidate(); // frames with translucent layers are drawn without it, so its last frame is stale
+        }
+    }
+
+    public int getLayerOpacity(int renderLayer) {
+        LayerCompositor compositor = layerCompositor;
+        return compositor == null ? 255 : compositor.getOpacity(renderLayer);
+    }
+
+    public synchronized void setBroadphase(Broadphase broadphase) {
+        this.broadphase = broadphase;
+        broadphase.entitiesChanged();
+    }
+
+    // 1 runs every phase on the loop thread, more splits entity updates, collision tests and drawing across a ForkJoinPool.
+    // takes effect at the start of the next tick
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // keeps the state of circles and rectangles in parallel arrays and moves them in one tight loop
+    public synchronized void setEntityStoreEnabled(boolean entityStoreEnabled) {
+        this.entityStoreEnabled = entityStoreEnabled;
+        entityListChanged = true;
+    }
+
+    public EntityStore getEntityStore() {
+        return entityStore;
+    }
+
+    // contacts between the built in shapes are cached here between ticks, only use it from the loop thread
+    public ContactCache getContactCache() {
+        return contactCache;
+    }
+
+    // how much memory each rasterizer may keep precomputed circle spans in, 0 works every circle out as it is drawn.
+    // with parallelism above 1 every band has a cache of this size
+    public void setSpanCacheBudgetBytes(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("the span cache budget can't be negative.");
+        }
+        spanCacheBudgetBytes = budgetBytes;
+    }
+
+    // summed over every rasterizer, only exact when read from the loop thread
+    public long getSpanCacheHits() {
+        WorkerPool pool = workerPool;
+        return rasterizer.getSpanCache().getHits() + (pool == null ? 0 : pool.getSpanCacheHits());
+    }
+
+    public long getSpanCacheMisses() {
+        WorkerPool pool = workerPool;
+        return rasterizer.getSpanCache().getMisses() + (pool == null ? 0 : pool.getSpanCacheMisses());
+    }
+
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+
+    // both counts are from the most recent tick
+    public int getCandidatePairCount() {
+        return candidatePairCount;
+    }
+
+    public int getCollidingPairCount() {
+        return collidingPairCount;
+    }
+
+    // every entity while sleeping is disabled
+    public int getAwakeEntityCount() {
+        ActivityTracker tracker = activityTracker;
+        return tracker == null || tracker.isStale() ? entityCount : tracker.getAwakeCount();
+    }
+
+    // records how long each phase of every frame takes, see getMetricsSnapshot(). costs nothing while disabled
+    public synchronized void setMetricsEnabled(boolean metricsEnabled) {
+        if (metricsEnabled == (frameMetrics != null)) {return;}
+
+        FrameMetrics metrics = null;
+        if (metricsEnabled) {
+            metrics = new FrameMetrics();
+            metrics.setJfrEventsEnabled(jfrEventsEnabled);
+        }
+        frameMetrics = metrics;
+    }
+
+    // null while metrics are disabled, otherwise percentiles over every frame since they were enabled
+    public MetricsSnapshot getMetricsSnapshot() {
+        FrameMetrics metrics = frameMetrics;
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    public FrameMetrics getFrameMetrics() {
+        return frameMetrics;
+    }
+
+    // commits an engine.Frame JFR event per frame while a flight recording is running and metrics are enabled
+    public synchronized void setJfrEventsEnabled(boolean jfrEventsEnabled) {
+        this.jfrEventsEnabled = jfrEventsEnabled;
+        if (frameMetrics != null) {
+            frameMetrics.setJfrEventsEnabled(jfrEventsEnabled);
         }
     }
 
@@ -223,6 +1051,39 @@ public class Screen extends JFrame implements Runnable {
         this.targetFps = targetFps;
     }
 
+    // simulates in ticks of exactly 1 / ticksPerSecond seconds whatever the frame rate, drawing positions
+    // interpolated between ticks. 0 goes back to one tick per frame with the measured frame time
+    public void setFixedTickRate(int ticksPerSecond) {
+        if (ticksPerSecond < 0) {
+            throw new IllegalArgumentException("the tick rate can't be negative.");
+        }
+        fixedTickRate = ticksPerSecond;
+    }
+
+    public int getFixedTickRate() {
+        return fixedTickRate;
+    }
+
+    // caps how many ticks one frame can run to catch up, so a slow frame can't snowball into slower ones
+    public void setMaxTicksPerFrame(int maxTicksPerFrame) {
+        if (maxTicksPerFrame < 1) {
+            throw new IllegalArgumentException("at least one tick has to run per frame.");
+        }
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public double getMeanFrameTimeMs() {
+        return framePacer.getMeanFrameTimeMs();
+    }
+
+    public double getFrameTimeStdDevMs() {
+        return framePacer.getFrameTimeStdDevMs();
+    }
+
     public double getDeltaTimeMs() {
         return deltaTimeMs;
     }
@@ -235,11 +1096,24 @@ public class Screen extends JFrame implements Runnable {
         return windowWidth;
     }
 
+    // the framebuffer the last frame was drawn into, windowWidth * windowHeight pixels in 0xRRGGBB
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
     public int getBackgroundColor() {
         return backgroundColor;
     }
 
     public void setBackgroundColor(int color) {
         backgroundColor = color;
+        DamageTracker tracker = damageTracker;
+        if (tracker != null) {
+            tracker.invalidate();
+        }
     }
 }
@@ -0,0 +1,141 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// the simulation state of a screen as of a tick, enough to carry on from there exactly as the screen would have.
+// the format is little endian and starts with a magic number and version:
+//     int magic, short version, long tick count, double delta time, long accumulated tick time, int fixed tick rate,
+//     int world width, int world height, int background color, int entity count
+// followed by every entity in draw order as a byte shape kind and the fields the shape writes, see Circle.writeSnapshot(),
+// and then the screen's entity pools in the order they were created: an int pool count, and per pool an int count of
+// its live entities followed by each one's int index into the entities and double remaining lifetime in ms.
+// only circles and rectangles can be snapshotted, a screen with a sprite or a shape of its own is turned down before
+// anything is written. a restored screen gives the lifetimes to its own pools by that order, so a replay has to create
+// the same pools in the same order
+public final class ScreenSnapshot {
+
+    static final int MAGIC = 0x50414e53; // "SNAP" in little endian
+    static final short VERSION = 2;
+    static final int HEADER_BYTES = 4 + 2 + 8 + 8 + 8 + 4 * 5;
+    static final int MAX_ENTITY_BYTES = 1 + 8 * 4 + 4 * 4 + 4 + 1 + 4 * 2 + 1; // a rectangle, circles are 4 bytes less
+
+    private final ByteBuffer buffer;
+    private final long tickCount;
+    private final int entityCount;
+
+    private ScreenSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        tickCount = buffer.getLong(6);
+        entityCount = buffer.getInt(HEADER_BYTES - 4);
+    }
+
+    // wraps bytes written by toByteBuffer(), checking the header but not the entities
+    public static ScreenSnapshot fromByteBuffer(ByteBuffer bytes) {
+        ByteBuffer buffer = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("the bytes aren't a screen snapshot.");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IllegalArgumentException("the snapshot was written by an unsupported version.");
+        }
+        return new ScreenSnapshot(buffer);
+    }
+
+    // throws when an entity can't be written, so the screen can turn a snapshot down before it changes anything
+    static void checkWritable(Entity[] entities, int entityCount) {
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            if (entity instanceof Sprite) {
+                throw new IllegalArgumentException("screens with sprites can't be snapshotted, their images live in a texture atlas.");
+            }
+            int kind = entity.getShapeKind();
+            if (!(entity instanceof ManagedEntity) || (kind != ShapeKind.CIRCLE && kind != ShapeKind.RECTANGLE)) {
+                throw new IllegalArgumentException("only screens of circles and rectangles can be snapshotted.");
+            }
+        }
+    }
+
+    static ScreenSnapshot write(Screen screen, Entity[] entities, int entityCount, EntityPool<?>[] pools) {
+        int liveCount = 0;
+        for (EntityPool<?> pool : pools) {
+            liveCount += pool.getLiveCount();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + entityCount * MAX_ENTITY_BYTES + 4 + pools.length * 4 +
+                liveCount * (4 + 8)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION);
+        screen.writeSnapshotHeader(buffer);
+        buffer.putInt(entityCount);
+
+        for (int i = 0; i < entityCount; i++) {
+            buffer.put((byte) entities[i].getShapeKind());
+            ((ManagedEntity) entities[i]).writeSnapshot(buffer);
+        }
+
+        Map<Entity, Integer> indices = new IdentityHashMap<>(liveCount * 2);
+        for (int i = 0; liveCount > 0 && i < entityCount; i++) {
+            indices.put(entities[i], i);
+        }
+        buffer.putInt(pools.length);
+        for (EntityPool<?> pool : pools) {
+            pool.writeSnapshot(buffer, indices);
+        }
+        buffer.flip();
+        return new ScreenSnapshot(buffer);
+    }
+
+    // recreates the entities in draw order into the given array, which has to fit them, and hands the pooled ones
+    // back to the pools. lifetimes of pools the snapshot has and the screen doesn't are dropped
+    void readEntities(Entity[] into, EntityPool<?>[] pools) {
+        ByteBuffer buffer = this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_BYTES);
+        for (int i = 0; i < entityCount; i++) {
+            int kind = buffer.get();
+            if (kind == ShapeKind.CIRCLE) {
+                into[i] = Circle.readSnapshot(buffer);
+            }
+            else if (kind == ShapeKind.RECTANGLE) {
+                into[i] = Rectangle.readSnapshot(buffer);
+            }
+            else {
+                throw new IllegalArgumentException("the snapshot has an entity of an unknown shape kind.");
+            }
+        }
+
+        int poolCount = buffer.getInt();
+        for (int pool = 0; pool < poolCount; pool++) {
+            int liveCount = buffer.getInt();
+            for (int live = 0; live < liveCount; live++) {
+                int index = buffer.getInt();
+                double remainingMs = buffer.getDouble();
+                if (pool < pools.length) {
+                    pools[pool].spawned(into[index], remainingMs);
+                }
+            }
+        }
+    }
+
+    // the header fields after the version, read by the screen
+    ByteBuffer header() {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.position(6);
+        return header;
+    }
+
+    // a read only view of the snapshot's bytes, to save it somewhere
+    public ByteBuffer toByteBuffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public int getSizeBytes() {
+        return buffer.limit();
+    }
+}
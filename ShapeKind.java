@@ -0,0 +1,16 @@
+// ids the narrowphase looks collision tests up by, see CollisionDispatch.
+// user defined shapes get an id from register() and return it from Entity.getShapeKind()
+public final class ShapeKind {
+
+    public static final int NONE = -1; // no narrowphase tests, the entity has to test collisions itself
+    public static final int CIRCLE = 0;
+    public static final int RECTANGLE = 1;
+
+    private static int nextKind = 2;
+
+    private ShapeKind() {}
+
+    public static synchronized int register() {
+        return nextKind++;
+    }
+}
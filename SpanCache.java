@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+// span tables of shapes that get drawn over and over, keyed by the shape's parameters, so a shape only has to be
+// worked out row by row the first time it is drawn. least recently used tables are evicted past the memory budget.
+// not thread safe, every Rasterizer has its own
+public final class SpanCache {
+
+    // a span table is the row of the first span relative to the origin, followed by the start (inclusive) and end
+    // (exclusive) of every row's span relative to the origin, see Rasterizer.fillSpans()
+
+    private long[] keys;
+    private int[][] tables;
+    private int[] newer; // the entries in least recently used order as a doubly linked list of indices, -1 ends it
+    private int[] older;
+    private int newest = -1;
+    private int oldest = -1;
+    private int[] freeEntries;
+    private int freeEntryCount;
+
+    private int[] buckets; // open addressing from the hash of a key to its entry index + 1, 0 when empty
+    private int bucketMask;
+
+    private long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public static final long DEFAULT_BUDGET_BYTES = 256 * 1024;
+    private static final int ENTRY_OVERHEAD_BYTES = 48; // array header, key and list links
+
+    public SpanCache() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public SpanCache(long budgetBytes) {
+        setBudgetBytes(budgetBytes);
+        allocate(16);
+    }
+
+    // the key of a shape with up to 32 bits of parameters, the kind keeps different shapes apart
+    public static long key(int shapeKind, int parameters) {
+        return (long) shapeKind << 32 | (parameters & 0xffffffffL);
+    }
+
+    // the span table stored under the key, null when it has to be worked out and put()
+    public int[] get(long key) {
+        int entry = find(key);
+        if (entry < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (entry != newest) {
+            unlink(entry);
+            linkNewest(entry);
+        }
+        return tables[entry];
+    }
+
+    public void put(long key, int[] spans) {
+        long size = sizeOf(spans);
+        if (size > budgetBytes) {return;}
+
+        int existing = find(key);
+        if (existing >= 0) {
+            removeEntry(existing);
+        }
+        while (usedBytes + size > budgetBytes) {
+            removeEntry(oldest);
+            evictions++;
+        }
+
+        if (freeEntryCount == 0) {
+            allocate(keys.length * 2);
+        }
+        int entry = freeEntries[--freeEntryCount];
+        keys[entry] = key;
+        tables[entry] = spans;
+        usedBytes += size;
+        linkNewest(entry);
+
+        int bucket = home(key);
+        while (buckets[bucket] != 0) {bucket = (bucket + 1) & bucketMask;}
+        buckets[bucket] = entry + 1;
+    }
+
+    // evicts down to the new budget right away, 0 turns caching off
+    public void setBudgetBytes(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("the span cache budget can't be negative.");
+        }
+        this.budgetBytes = budgetBytes;
+        while (usedBytes > budgetBytes) {
+            removeEntry(oldest);
+            evictions++;
+        }
+    }
+
+    public void clear() {
+        while (oldest >= 0) {removeEntry(oldest);}
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int size() {
+        return keys.length - freeEntryCount;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    private int find(long key) {
+        int bucket = home(key);
+        int entry;
+        while ((entry = buckets[bucket]) != 0) {
+            if (keys[entry - 1] == key) {return entry - 1;}
+            bucket = (bucket + 1) & bucketMask;
+        }
+        return -1;
+    }
+
+    private int home(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash >>> 32) & bucketMask;
+    }
+
+    private void removeEntry(int entry) {
+        int bucket = home(keys[entry]);
+        while (buckets[bucket] != entry + 1) {bucket = (bucket + 1) & bucketMask;}
+        removeBucket(bucket);
+
+        unlink(entry);
+        usedBytes -= sizeOf(tables[entry]);
+        tables[entry] = null;
+        freeEntries[freeEntryCount++] = entry;
+    }
+
+    // backward shift deletion, pulls later entries of the probe run into the gap so lookups never stop early
+    private void removeBucket(int gap) {
+        buckets[gap] = 0;
+        int bucket = gap;
+        while (true) {
+            bucket = (bucket + 1) & bucketMask;
+            int entry = buckets[bucket];
+            if (entry == 0) {return;}
+
+            int home = home(keys[entry - 1]);
+            boolean homeBeforeGap = bucket > gap ? home <= gap || home > bucket : home <= gap && home > bucket;
+            if (homeBeforeGap) {
+                buckets[gap] = entry;
+                buckets[bucket] = 0;
+                gap = bucket;
+            }
+        }
+    }
+
+    private void linkNewest(int entry) {
+        older[entry] = newest;
+        newer[entry] = -1;
+        if (newest >= 0) {newer[newest] = entry;}
+        newest = entry;
+        if (oldest < 0) {oldest = entry;}
+    }
+
+    private void unlink(int entry) {
+        if (older[entry] >= 0) {newer[older[entry]] = newer[entry];} else {oldest = newer[entry];}
+        if (newer[entry] >= 0) {older[newer[entry]] = older[entry];} else {newest = older[entry];}
+    }
+
+    // grows the entry arrays and rebuilds the buckets at twice the entry capacity
+    private void allocate(int capacity) {
+        int oldCapacity = keys == null ? 0 : keys.length;
+        keys = keys == null ? new long[capacity] : Arrays.copyOf(keys, capacity);
+        tables = tables == null ? new int[capacity][] : Arrays.copyOf(tables, capacity);
+        newer = newer == null ? new int[capacity] : Arrays.copyOf(newer, capacity);
+        older = older == null ? new int[capacity] : Arrays.copyOf(older, capacity);
+        freeEntries = freeEntries == null ? new int[capacity] : Arrays.copyOf(freeEntries, capacity);
+        for (int entry = capacity - 1; entry >= oldCapacity; entry--) {
+            freeEntries[freeEntryCount++] = entry;
+        }
+
+        buckets = new int[capacity * 2];
+        bucketMask = buckets.length - 1;
+        for (int entry = oldest; entry >= 0; entry = newer[entry]) {
+            int bucket = home(keys[entry]);
+            while (buckets[bucket] != 0) {bucket = (bucket + 1) & bucketMask;}
+            buckets[bucket] = entry + 1;
+        }
+    }
+
+    private static long sizeOf(int[] spans) {
+        return ENTRY_OVERHEAD_BYTES + 4L * spans.length;
+    }
+}
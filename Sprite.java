@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+
+// a rectangle the size of an image from a TextureAtlas, drawn with the image instead of a color. it moves and collides
+// like any other rectangle. within a render layer sprites are drawn grouped by atlas page, after the other entities
+public class Sprite extends Rectangle {
+
+    public static final int NO_COLOR_KEY = -1;
+
+    private TextureAtlas.Region region;
+    private int colorKey = NO_COLOR_KEY;
+
+    public Sprite(TextureAtlas.Region region, int topLeftX, int topLeftY) {
+        this(region, topLeftX, topLeftY, 0, 0, 0);
+    }
+
+    public Sprite(TextureAtlas.Region region, int topLeftX, int topLeftY, int dxPxPerFrame, int dyPxPerFrame, int renderLayer) {
+        super(topLeftX, topLeftY, region.getWidth(), region.getHeight(), dxPxPerFrame, dyPxPerFrame, 0, renderLayer);
+        this.region = region;
+    }
+
+    public void rasterize(Rasterizer rasterizer) {
+        int screenX = rasterizer.toScreenX(getTopLeftX());
+        int screenY = rasterizer.toScreenY(getTopLeftY());
+        int screenWidth = Math.max(1, rasterizer.toScreenX(getTopLeftX() + getWidth()) - screenX);
+        int screenHeight = Math.max(1, rasterizer.toScreenY(getTopLeftY() + getHeight()) - screenY);
+        rasterizer.drawRegion(region, screenX, screenY, screenWidth, screenHeight, colorKey, getAlpha());
+    }
+
+    // the image and its color key, alpha is compared on its own
+    public long getAppearanceKey() {
+        return (long) region.getId() << 32 | colorKey & 0xffffffffL;
+    }
+
+    public TextureAtlas.Region getRegion() {
+        return region;
+    }
+
+    // swaps the image, for animating through frames packed in the same atlas
+    public void setRegion(TextureAtlas.Region region) {
+        if (region.getWidth() != getWidth() || region.getHeight() != getHeight()) {
+            throw new IllegalArgumentException("a sprite's region can only be swapped for one of the same size.");
+        }
+        this.region = region;
+    }
+
+    public int getColorKey() {
+        return colorKey;
+    }
+
+    // pixels of this RGB color aren't drawn, NO_COLOR_KEY draws every pixel
+    public void setColorKey(int colorKey) {
+        if (colorKey != NO_COLOR_KEY && (colorKey < 0 || colorKey > 0xffffff)) {
+            throw new IllegalArgumentException("the color key must be an RGB color or NO_COLOR_KEY.");
+        }
+        this.colorKey = colorKey;
+    }
+
+    // what RenderLayers groups sprites by
+    int getPageId() {
+        return region.page.id;
+    }
+
+    public void writeSnapshot(ByteBuffer buffer) {
+        throw new IllegalArgumentException("sprites can't be written to a snapshot, their images live in an atlas.");
+    }
+
+    public String toString() {
+        return String.format("Sprite with width: %d, height: %d, top left x: %d, top left y: %d, " +
+                "dx: %d, dy: %d, and region: %d", getWidth(), getHeight(), getTopLeftX(), getTopLeftY(),
+                getDxPxPerFrame(), getDyPxPerFrame(), region.getId());
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+public class SweepAndPruneBroadphase implements Broadphase {
+
+    // entity indices ordered by minX, kept between ticks since entities only move a few pixels per tick
+    private int[] order = new int[0];
+    private int orderedCount;
+
+    private int[] minX = new int[0];
+    private int[] minY = new int[0];
+    private int[] maxX = new int[0];
+    private int[] maxY = new int[0];
+    private int[] layer = new int[0];
+    private int[] sweep = new int[0];
+    private long[] keyed = new long[0]; // minX and index packed for rebuildOrder()
+
+    public void findPairs(Entity[] entities, int entityCount, PairBuffer pairs) {
+        cacheBounds(entities, entityCount);
+
+        if (orderedCount != entityCount) {
+            rebuildOrder(entityCount);
+        }
+        else {
+            insertionSort();
+        }
+
+        int sweepCount = 0;
+        for (int i = 0; i < orderedCount; i++) {
+            int entity = order[i];
+            if (entities[entity].collidesWithEntities()) {
+                sweep[sweepCount++] = entity;
+            }
+        }
+
+        for (int i = 0; i < sweepCount; i++) {
+            int first = sweep[i];
+            int firstMaxX = maxX[first];
+
+            for (int j = i + 1; j < sweepCount && minX[sweep[j]] < firstMaxX; j++) {
+                int second = sweep[j];
+                if (layer[first] != layer[second] || minY[first] >= maxY[second] || maxY[first] <= minY[second]) {continue;}
+
+                pairs.add(Math.min(first, second), Math.max(first, second));
+            }
+        }
+    }
+
+    public void entitiesChanged() {
+        orderedCount = -1;
+    }
+
+    private void cacheBounds(Entity[] entities, int entityCount) {
+        if (minX.length < entityCount) {
+            int capacity = Math.max(entityCount, minX.length * 2);
+            minX = new int[capacity];
+            minY = new int[capacity];
+            maxX = new int[capacity];
+            maxY = new int[capacity];
+            layer = new int[capacity];
+            sweep = new int[capacity];
+            order = Arrays.copyOf(order, capacity);
+        }
+
+        for (int i = 0; i < entityCount; i++) {
+            Entity entity = entities[i];
+            minX[i] = entity.getMinX();
+            minY[i] = entity.getMinY();
+            maxX[i] = entity.getMaxX();
+            maxY[i] = entity.getMaxY();
+            layer[i] = entity.getCollisionLayer();
+        }
+    }
+
+    // the order is nearly sorted from the last tick, so this is close to linear
+    private void insertionSort() {
+        for (int i = 1; i < orderedCount; i++) {
+            int entity = order[i];
+            int key = minX[entity];
+
+            int j = i - 1;
+            while (j >= 0 && minX[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = entity;
+        }
+    }
+
+    // the entity array was rebuilt so the old indices mean nothing, sort from scratch
+    private void rebuildOrder(int entityCount) {
+        if (keyed.length < entityCount) {
+            keyed = new long[Math.max(entityCount, keyed.length * 2)];
+        }
+        for (int i = 0; i < entityCount; i++) {
+            keyed[i] = ((long) minX[i] << 32) | i;
+        }
+        Arrays.sort(keyed, 0, entityCount);
+
+        for (int i = 0; i < entityCount; i++) {
+            order[i] = (int) keyed[i];
+        }
+        orderedCount = entityCount;
+    }
+}
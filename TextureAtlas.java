@@ -0,0 +1,230 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// images for sprites packed into a few big square pages, so thousands of sprites read from the same couple of arrays.
+// images are packed onto shelves: a row of the page as tall as the first image put on it, filled left to right.
+// an image goes on the lowest shelf it fits on, or opens a new shelf below the last one, or a new page.
+// the top byte of a page pixel is the transparency (255 minus the alpha), so opaque pixels are plain RGB
+// and a row of them can be copied straight into the framebuffer. images with transparency keep their runs of opaque
+// and translucent pixels per row, so opaque runs are copied, translucent ones blended and invisible pixels skipped
+public final class TextureAtlas {
+
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    private static int nextPageId; // unique over every atlas, sprites are grouped by it when drawn
+    private static int nextRegionId;
+
+    // a page and the shelves packed on it so far
+    static final class Page {
+        final int id;
+        final int size;
+        final int[] pixels;
+        private int[] shelfY = new int[8];
+        private int[] shelfHeight = new int[8];
+        private int[] shelfUsedWidth = new int[8];
+        private int shelfCount;
+        private int usedHeight;
+
+        private Page(int id, int size) {
+            this.id = id;
+            this.size = size;
+            pixels = new int[size * size];
+        }
+    }
+
+    // where an image was packed, sprites draw one
+    public static final class Region {
+        final Page page;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final boolean opaque; // every pixel has an alpha of 255
+        // for images that aren't opaque: the runs of visible pixels in row r are the pairs of columns (start inclusive,
+        // end exclusive) in runs from runOffsets[r] to runOffsets[r + 1]. runs of opaque pixels have the start as is,
+        // runs of translucent ones have it inverted (~start). null for opaque images
+        final int[] runs;
+        final int[] runOffsets;
+        final int id;
+
+        private Region(Page page, int x, int y, int width, int height, boolean opaque, int[] runs, int[] runOffsets, int id) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.opaque = opaque;
+            this.runs = runs;
+            this.runOffsets = runOffsets;
+            this.id = id;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public boolean isOpaque() {
+            return opaque;
+        }
+
+
+        // unique over every atlas
+        public int getId() {
+            return id;
+        }
+    }
+
+    private final int pageSize;
+    private final List<Page> pages = new ArrayList<>();
+
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    public TextureAtlas(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("atlas pages must have a size of at least 1.");
+        }
+        this.pageSize = pageSize;
+    }
+
+    // packs an image given as ARGB pixels, row by row
+    public synchronized Region add(int[] argb, int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("images must have a width and height of at least 1.");
+        }
+        if (width > pageSize || height > pageSize) {
+            throw new IllegalArgumentException("the image is bigger than a page of the atlas.");
+        }
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("the pixel array is smaller than the given width and height.");
+        }
+
+        Page page = null;
+        int x = -1;
+        int y = -1;
+        for (int i = 0; i < pages.size() && x < 0; i++) {
+            page = pages.get(i);
+            int shelf = findShelf(page, width, height);
+            if (shelf >= 0) {
+                x = page.shelfUsedWidth[shelf];
+                y = page.shelfY[shelf];
+                page.shelfUsedWidth[shelf] += width;
+            }
+        }
+        if (x < 0) {
+            page = new Page(nextPageId(), pageSize);
+            pages.add(page);
+            x = 0;
+            y = addShelf(page, width, height);
+        }
+
+        boolean opaque = true;
+        for (int row = 0; row < height; row++) {
+            int from = row * width;
+            int to = (y + row) * pageSize + x;
+            for (int col = 0; col < width; col++) {
+                int pixel = argb[from + col];
+                int alpha = pixel >>> 24;
+                opaque &= alpha == 255;
+                page.pixels[to + col] = (255 - alpha) << 24 | pixel & 0xffffff;
+            }
+        }
+        if (opaque) {
+            return new Region(page, x, y, width, height, true, null, null, nextRegionId());
+        }
+
+        int[] runOffsets = new int[height + 1];
+        int[] runs = new int[16];
+        int runCount = 0;
+        for (int row = 0; row < height; row++) {
+            runOffsets[row] = runCount * 2;
+            int col = 0;
+            while (col < width) {
+                int kind = kindOf(argb[row * width + col]);
+                int start = col;
+                while (col < width && kindOf(argb[row * width + col]) == kind) {col++;}
+                if (kind == INVISIBLE) {continue;}
+
+                if (runCount * 2 == runs.length) {
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                }
+                runs[runCount * 2] = kind == OPAQUE ? start : ~start;
+                runs[runCount * 2 + 1] = col;
+                runCount++;
+            }
+        }
+        runOffsets[height] = runCount * 2;
+        return new Region(page, x, y, width, height, false, Arrays.copyOf(runs, runCount * 2), runOffsets, nextRegionId());
+    }
+
+    private static final int INVISIBLE = 0;
+    private static final int TRANSLUCENT = 1;
+    private static final int OPAQUE = 2;
+
+    private static int kindOf(int argb) {
+        int alpha = argb >>> 24;
+        return alpha == 0 ? INVISIBLE : alpha == 255 ? OPAQUE : TRANSLUCENT;
+    }
+
+    // images without an alpha channel are opaque
+    public Region add(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        return add(argb, width, height);
+    }
+
+    // the lowest shelf with room for the image that isn't much taller than it, or a new shelf, -1 when the page is full
+    private int findShelf(Page page, int width, int height) {
+        int best = -1;
+        for (int shelf = 0; shelf < page.shelfCount; shelf++) {
+            if (page.shelfHeight[shelf] < height || page.shelfUsedWidth[shelf] + width > pageSize) {continue;}
+            if (page.shelfHeight[shelf] > height * 2) {continue;} // a short image would waste most of a tall shelf
+            if (best < 0 || page.shelfHeight[shelf] < page.shelfHeight[best]) {best = shelf;}
+        }
+        if (best >= 0) {return best;}
+        if (page.usedHeight + height > pageSize) {return -1;}
+
+        addShelf(page, 0, height);
+        return page.shelfCount - 1;
+    }
+
+    // opens a shelf below the last one with the given width already used, returns its y
+    private static int addShelf(Page page, int width, int height) {
+        if (page.shelfCount == page.shelfY.length) {
+            page.shelfY = Arrays.copyOf(page.shelfY, page.shelfCount * 2);
+            page.shelfHeight = Arrays.copyOf(page.shelfHeight, page.shelfCount * 2);
+            page.shelfUsedWidth = Arrays.copyOf(page.shelfUsedWidth, page.shelfCount * 2);
+        }
+        int y = page.usedHeight;
+        page.shelfY[page.shelfCount] = y;
+        page.shelfHeight[page.shelfCount] = height;
+        page.shelfUsedWidth[page.shelfCount] = width;
+        page.shelfCount++;
+        page.usedHeight += height;
+        return y;
+    }
+
+    private static synchronized int nextPageId() {
+        return nextPageId++;
+    }
+
+    private static synchronized int nextRegionId() {
+        return nextRegionId++;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+}
@@ -0,0 +1,40 @@
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JFrame;
+
+public class WindowFrameSink extends JFrame implements FrameSink {
+
+    public WindowFrameSink(String windowTitle, int windowWidth, int windowHeight) {
+        setTitle(windowTitle);
+        setSize(windowWidth, windowHeight);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        setLocationRelativeTo(null);
+        setVisible(true);
+    }
+
+    public void present(BufferedImage image, int[] pixels, int width, int height) {
+        BufferStrategy bs = getBufferStrategy();
+
+        if (bs == null) {
+            createBufferStrategy(3);
+            return;
+        }
+
+        Graphics g = bs.getDrawGraphics();
+        if (getWidth() == width && getHeight() == height) {
+            g.drawImage(image, 0, 0, null); // a plain blit, scaling goes through a much slower loop
+        }
+        else {
+            g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+        }
+        g.dispose();
+
+        bs.show();
+    }
+
+    public void close() {
+        dispose();
+    }
+}
@@ -0,0 +1,314 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class WorkerPool {
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private PairBuffer[] chunkPairs;
+
+    private int[] bandPixels; // the framebuffer the band rasterizers were made for
+    private Rasterizer[] bandRasterizers;
+    private int bandHeight;
+    private long spanCacheBudgetBytes = SpanCache.DEFAULT_BUDGET_BYTES;
+    private double viewX;
+    private double viewY;
+    private double zoom = 1;
+    private int[] entityMinY;
+    private int[] entityMaxY;
+
+    // below these sizes a range is done on one thread, splitting further costs more than it saves
+    private static final int ENTITIES_PER_TASK = 2048;
+    private static final int PAIRS_PER_TASK = 1024;
+    private static final int BANDS_PER_WORKER = 4;
+    private static final int MIN_PIXELS_PER_BAND = 1 << 16;
+
+    public WorkerPool(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("worker pools must have a parallelism of at least 1.");
+        }
+        this.parallelism = parallelism;
+        pool = new ForkJoinPool(parallelism);
+        chunkPairs = new PairBuffer[0];
+        entityMinY = new int[0];
+        entityMaxY = new int[0];
+    }
+
+    public void updatePositions(Entity[] entities, int entityCount) {
+        pool.invoke(new UpdateTask(entities, 0, entityCount));
+    }
+
+    public void integrate(EntityStore store, double deltaTimeSec, int windowWidth, int windowHeight) {
+        pool.invoke(new IntegrateTask(store, 0, store.size(), deltaTimeSec, windowWidth, windowHeight));
+    }
+
+    // runs collidesWith over the candidates in fixed chunks, then appends the hits in chunk order,
+    // so colliding ends up in the same order a single thread would produce whatever the thread count
+    public void findCollisions(Entity[] entities, PairBuffer candidates, PairBuffer colliding) {
+        int chunkCount = (candidates.size() + PAIRS_PER_TASK - 1) / PAIRS_PER_TASK;
+        if (chunkCount == 0) {return;}
+        if (chunkPairs.length < chunkCount) {
+            PairBuffer[] grown = new PairBuffer[chunkCount];
+            System.arraycopy(chunkPairs, 0, grown, 0, chunkPairs.length);
+            for (int chunk = chunkPairs.length; chunk < chunkCount; chunk++) {
+                grown[chunk] = new PairBuffer();
+            }
+            chunkPairs = grown;
+        }
+
+        pool.invoke(new CollisionTask(entities, candidates, 0, chunkCount));
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            PairBuffer hits = chunkPairs[chunk];
+            for (int pair = 0; pair < hits.size(); pair++) {
+                colliding.add(hits.getFirst(pair), hits.getSecond(pair));
+            }
+        }
+    }
+
+    // clears and draws the framebuffer in horizontal bands, one task per band. every band draws the entities
+    // overlapping it in render layer order, so the result is the same as drawing the whole frame on one thread
+    public void drawFrame(Entity[] entities, int entityCount, int[] pixels, int width, int height, int backgroundColor) {
+        if (pixels != bandPixels) {
+            createBands(pixels, width, height);
+        }
+        if (entityMinY.length < entityCount) {
+            entityMinY = new int[entities.length];
+            entityMaxY = new int[entities.length];
+        }
+        Rasterizer view = bandRasterizers[0];
+        if (view.hasDefaultView()) {
+            for (int i = 0; i < entityCount; i++) {
+                entityMinY[i] = entities[i].getMinY();
+                entityMaxY[i] = entities[i].getMaxY();
+            }
+        }
+        else {
+            // rows on screen, with a row of slack for rounding, kept from overflowing for entities without bounds
+            for (int i = 0; i < entityCount; i++) {
+                entityMinY[i] = Math.max(view.toScreenY(entities[i].getMinY()), Integer.MIN_VALUE + 1) - 1;
+                entityMaxY[i] = Math.min(view.toScreenY(entities[i].getMaxY()), Integer.MAX_VALUE - 1) + 1;
+            }
+        }
+
+        pool.invoke(new DrawTask(entities, entityCount, backgroundColor, 0, bandRasterizers.length));
+    }
+
+    // whether drawFrame() would split a frame of the given size. a frame too small for two bands, or a machine with a
+    // single core, is drawn faster on one thread without the bands
+    public boolean splitsFrame(int width, int height) {
+        return bandCountFor(width, height) > 1;
+    }
+
+    // bands only share the cache lines at their edges, a thin band costs more in task overhead than it gains
+    private int bandCountFor(int width, int height) {
+        int workers = Math.min(parallelism, Runtime.getRuntime().availableProcessors());
+        if (workers == 1) {return 1;}
+
+        long bands = Math.min(workers * BANDS_PER_WORKER, (long) width * height / MIN_PIXELS_PER_BAND);
+        return (int) Math.max(1, Math.min(bands, height));
+    }
+
+    private void createBands(int[] pixels, int width, int height) {
+        int targetCount = bandCountFor(width, height);
+        bandHeight = (height + targetCount - 1) / targetCount;
+
+        int bandCount = (height + bandHeight - 1) / bandHeight;
+        bandRasterizers = new Rasterizer[bandCount];
+        for (int band = 0; band < bandCount; band++) {
+            bandRasterizers[band] = new Rasterizer(pixels, width, height);
+            bandRasterizers[band].getSpanCache().setBudgetBytes(spanCacheBudgetBytes);
+            bandRasterizers[band].setView(viewX, viewY, zoom);
+            bandRasterizers[band].setClip(0, band * bandHeight, width, (band + 1) * bandHeight);
+        }
+        bandPixels = pixels;
+    }
+
+    // the pixels the band rasterizers wrote since the last call, clears included
+    public long takePixelsWritten() {
+        if (bandRasterizers == null) {return 0;}
+
+        long written = 0;
+        for (Rasterizer rasterizer : bandRasterizers) {
+            written += rasterizer.takePixelsWritten();
+        }
+        return written;
+    }
+
+    public void setView(double offsetX, double offsetY, double zoom) {
+        viewX = offsetX;
+        viewY = offsetY;
+        this.zoom = zoom;
+        if (bandRasterizers == null) {return;}
+
+        for (Rasterizer rasterizer : bandRasterizers) {
+            rasterizer.setView(offsetX, offsetY, zoom);
+        }
+    }
+
+    // every band has its own span cache so bands never share one across threads
+    public void setSpanCacheBudgetBytes(long budgetBytes) {
+        spanCacheBudgetBytes = budgetBytes;
+        if (bandRasterizers == null) {return;}
+
+        for (Rasterizer rasterizer : bandRasterizers) {
+            rasterizer.getSpanCache().setBudgetBytes(budgetBytes);
+        }
+    }
+
+    public long getSpanCacheHits() {
+        long hits = 0;
+        if (bandRasterizers != null) {
+            for (Rasterizer rasterizer : bandRasterizers) {hits += rasterizer.getSpanCache().getHits();}
+        }
+        return hits;
+    }
+
+    public long getSpanCacheMisses() {
+        long misses = 0;
+        if (bandRasterizers != null) {
+            for (Rasterizer rasterizer : bandRasterizers) {misses += rasterizer.getSpanCache().getMisses();}
+        }
+        return misses;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    private void drawBand(int band, Entity[] entities, int entityCount, int backgroundColor) {
+        Rasterizer rasterizer = bandRasterizers[band];
+        int bandTop = band * bandHeight;
+        int bandBottom = Math.min(bandTop + bandHeight, rasterizer.getHeight());
+
+        rasterizer.fillRect(0, bandTop, rasterizer.getWidth(), bandBottom - bandTop, backgroundColor);
+        for (int i = 0; i < entityCount; i++) {
+            if (entityMaxY[i] <= bandTop || entityMinY[i] >= bandBottom) {continue;}
+            entities[i].rasterize(rasterizer);
+        }
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static class UpdateTask extends RecursiveAction {
+
+        private final Entity[] entities;
+        private final int from;
+        private final int to;
+
+        UpdateTask(Entity[] entities, int from, int to) {
+            this.entities = entities;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= ENTITIES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    entities[i].updatePosition();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new UpdateTask(entities, from, middle), new UpdateTask(entities, middle, to));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class IntegrateTask extends RecursiveAction {
+
+        private final EntityStore store;
+        private final int from;
+        private final int to;
+        private final double deltaTimeSec;
+        private final int windowWidth;
+        private final int windowHeight;
+
+        IntegrateTask(EntityStore store, int from, int to, double deltaTimeSec, int windowWidth, int windowHeight) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+            this.deltaTimeSec = deltaTimeSec;
+            this.windowWidth = windowWidth;
+            this.windowHeight = windowHeight;
+        }
+
+        protected void compute() {
+            if (to - from <= ENTITIES_PER_TASK) {
+                store.integrate(from, to, deltaTimeSec, windowWidth, windowHeight);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new IntegrateTask(store, from, middle, deltaTimeSec, windowWidth, windowHeight),
+                    new IntegrateTask(store, middle, to, deltaTimeSec, windowWidth, windowHeight));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class DrawTask extends RecursiveAction {
+
+        private final Entity[] entities;
+        private final int entityCount;
+        private final int backgroundColor;
+        private final int fromBand;
+        private final int toBand;
+
+        DrawTask(Entity[] entities, int entityCount, int backgroundColor, int fromBand, int toBand) {
+            this.entities = entities;
+            this.entityCount = entityCount;
+            this.backgroundColor = backgroundColor;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        protected void compute() {
+            if (toBand - fromBand > 1) {
+                int middle = (fromBand + toBand) >>> 1;
+                invokeAll(new DrawTask(entities, entityCount, backgroundColor, fromBand, middle),
+                        new DrawTask(entities, entityCount, backgroundColor, middle, toBand));
+                return;
+            }
+            drawBand(fromBand, entities, entityCount, backgroundColor);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class CollisionTask extends RecursiveAction {
+
+        private final Entity[] entities;
+        private final PairBuffer candidates;
+        private final int fromChunk;
+        private final int toChunk;
+
+        CollisionTask(Entity[] entities, PairBuffer candidates, int fromChunk, int toChunk) {
+            this.entities = entities;
+            this.candidates = candidates;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new CollisionTask(entities, candidates, fromChunk, middle),
+                        new CollisionTask(entities, candidates, middle, toChunk));
+                return;
+            }
+
+            PairBuffer hits = chunkPairs[fromChunk];
+            hits.clear();
+
+            int end = Math.min(candidates.size(), (fromChunk + 1) * PAIRS_PER_TASK);
+            for (int pair = fromChunk * PAIRS_PER_TASK; pair < end; pair++) {
+                int first = candidates.getFirst(pair);
+                int second = candidates.getSecond(pair);
+                if (entities[first].collidesWith(entities[second])) {
+                    hits.add(first, second);
+                }
+            }
+        }
+    }
+}